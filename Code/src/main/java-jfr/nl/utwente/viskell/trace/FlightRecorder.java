@@ -0,0 +1,56 @@
+package nl.utwente.viskell.trace;
+
+/**
+ * Begins spans that are Flight Recorder events.
+ *
+ * This class and the events are compiled only when building on a Java that
+ * has the Flight Recorder API, and Trace only loads it when running on one.
+ */
+final class FlightRecorder implements Recorder {
+    /** The number of characters of Haskell code kept in an event. */
+    private static final int CODE_LENGTH = 200;
+
+    @Override
+    public Span propagation(Object block, boolean finalPhase) {
+        PropagationEvent event = new PropagationEvent();
+        event.blockClass = block.getClass().getSimpleName();
+        event.blockId = block.hashCode();
+        event.finalPhase = finalPhase;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span refresh(Object block) {
+        RefreshEvent event = new RefreshEvent();
+        event.blockClass = block.getClass().getSimpleName();
+        event.blockId = block.hashCode();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span unification(Object context) {
+        UnificationEvent event = new UnificationEvent();
+        if (event.isEnabled()) {
+            // the context is only shown when it is going to be recorded
+            event.context = String.valueOf(context);
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span ghciRequest(String expr, String priority, Object requester, long queueTime) {
+        GhciRequestEvent event = new GhciRequestEvent();
+        event.expression = expr.length() > CODE_LENGTH ? expr.substring(0, CODE_LENGTH) + "..." : expr;
+        event.priority = priority;
+        if (requester != null) {
+            event.requesterClass = requester.getClass().getSimpleName();
+            event.requesterId = requester.hashCode();
+        }
+        event.queueTime = queueTime;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,35 @@
+package nl.utwente.viskell.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The evaluation of a request in ghci, from sending it until its result is there.
+ * The time it waited in the work queue before that is a field, so the enqueue,
+ * start and finish of the request are all in the event.
+ */
+@Name("nl.utwente.viskell.GhciRequest")
+@Label("Ghci Request")
+@Category({"Viskell", "Evaluation"})
+@Description("Evaluation of a request in ghci")
+final class GhciRequestEvent extends Event implements Span {
+    @Label("Expression")
+    String expression;
+
+    @Label("Priority")
+    String priority;
+
+    @Label("Requester Class")
+    String requesterClass;
+
+    @Label("Requester Id")
+    int requesterId;
+
+    @Label("Queue Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueTime;
+}
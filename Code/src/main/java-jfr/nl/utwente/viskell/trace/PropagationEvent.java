@@ -0,0 +1,25 @@
+package nl.utwente.viskell.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The handling of connection changes by a single block, which includes those of the blocks it propagates to.
+ */
+@Name("nl.utwente.viskell.Propagation")
+@Label("Connection Change Propagation")
+@Category({"Viskell", "Blocks"})
+@Description("Type checking and expression updates of a block after its connections changed")
+final class PropagationEvent extends Event implements Span {
+    @Label("Block Class")
+    String blockClass;
+
+    @Label("Block Id")
+    int blockId;
+
+    @Label("Final Phase")
+    boolean finalPhase;
+}
@@ -0,0 +1,22 @@
+package nl.utwente.viskell.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The refresh of the visual state of a block on the JavaFX thread.
+ */
+@Name("nl.utwente.viskell.Refresh")
+@Label("Visual Refresh")
+@Category({"Viskell", "Blocks"})
+@Description("Update of what a block shows after its types or expression changed")
+final class RefreshEvent extends Event implements Span {
+    @Label("Block Class")
+    String blockClass;
+
+    @Label("Block Id")
+    int blockId;
+}
@@ -0,0 +1,19 @@
+package nl.utwente.viskell.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The type checking of a connection or of the anchors of a block, with all the unifications it takes.
+ */
+@Name("nl.utwente.viskell.Unification")
+@Label("Type Unification")
+@Category({"Viskell", "Type Checking"})
+@Description("Unification of the types of a connection or of a block by the type checker")
+final class UnificationEvent extends Event implements Span {
+    @Label("Context")
+    String context;
+}
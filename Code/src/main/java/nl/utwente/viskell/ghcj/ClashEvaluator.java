@@ -23,4 +23,9 @@ public class ClashEvaluator extends GhciEvaluator {
         return ImmutableList.of("CLaSH.Prelude", "Data.List", "Data.Maybe", "Data.Either");
     }
 
+    @Override
+    protected List<String> getCompiler() {
+        return ImmutableList.of("clash", "-fno-warn-overlapping-patterns");
+    }
+
 }
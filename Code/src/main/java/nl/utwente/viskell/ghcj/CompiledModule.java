@@ -0,0 +1,249 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Collects the shared definitions into a generated Haskell module, and
+ * compiles it to optimised object code in the background.
+ *
+ * A compilation starts once the definitions have stayed the same for a
+ * moment, and only if they differ from those of the last compiled module.
+ * Every compiled version goes in a directory of its own, so a version can be
+ * loaded into ghci while the next one is being compiled.
+ */
+final class CompiledModule {
+    /** The name of the generated module. */
+    private static final String NAME = "ViskellShared";
+
+    /** How long the definitions need to stay the same before compiling them, in milliseconds. */
+    private static final long COMPILE_DELAY = 1500;
+
+    /** Runs the compiler, one compilation at a time. */
+    private final ScheduledExecutorService compiler;
+
+    /** Receives every successfully compiled version. */
+    private final Consumer<Build> onCompiled;
+
+    /** Receives the errors of failed compilations. */
+    private final Consumer<String> onError;
+
+    /** The declarations of the module, by the name they define, in dependency order. */
+    private final LinkedHashMap<String, String> declarations;
+
+    /** The command to run the compiler, or null until the module is started. */
+    private List<String> command;
+
+    /** The modules imported by the generated module. */
+    private List<String> imports;
+
+    /** The directory holding all compiled versions, or null if none was made yet. */
+    private Path directory;
+
+    /** The source of the last compiled module, or null. */
+    private String compiledSource;
+
+    /** The number of the last compiled version. */
+    private int version;
+
+    /** The compilation that is waiting for the definitions to settle, or null. */
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * @param onCompiled Receives every successfully compiled version, on the compiler thread.
+     * @param onError Receives the errors of failed compilations, on the compiler thread.
+     */
+    CompiledModule(Consumer<Build> onCompiled, Consumer<String> onError) {
+        this.compiler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ghc-compiler").setDaemon(true).build());
+        this.onCompiled = onCompiled;
+        this.onError = onError;
+        this.declarations = new LinkedHashMap<>();
+    }
+
+    /**
+     * Starts compiling, with the compiler and imports of an evaluator.
+     * @param ghci An evaluator of the backend the module is for.
+     */
+    synchronized void start(Evaluator ghci) {
+        this.command = ghci.getCompiler();
+        this.imports = ghci.getModules();
+        this.schedule();
+    }
+
+    /**
+     * Adds a declaration, or replaces the one of the same name.
+     * Declarations that depend on the replaced one are removed, as they might no longer fit;
+     * the ones that are still used are defined again right after this.
+     * @param name The name that is defined.
+     * @param declaration The type signature and definition, separated by a semicolon.
+     */
+    synchronized void define(String name, String declaration) {
+        this.undefine(name);
+        this.declarations.put(name, declaration);
+        this.schedule();
+    }
+
+    /**
+     * Removes a declaration that is no longer used, and everything that depends on it.
+     * @param name The name that is defined.
+     */
+    synchronized void remove(String name) {
+        if (this.declarations.containsKey(name)) {
+            this.undefine(name);
+            this.schedule();
+        }
+    }
+
+    /** Removes a declaration and everything that depends on it. */
+    private void undefine(String name) {
+        if (this.declarations.remove(name) == null) {
+            return;
+        }
+
+        Pattern use = Pattern.compile("(?<![\\w'])" + Pattern.quote(name) + "(?![\\w'])");
+        List<String> dependents = new ArrayList<>();
+        this.declarations.forEach((other, declaration) -> {
+            if (use.matcher(declaration).find()) {
+                dependents.add(other);
+            }
+        });
+        dependents.forEach(this::undefine);
+    }
+
+    /** (Re)starts the wait for the definitions to settle before compiling them. */
+    private void schedule() {
+        if (this.command == null || this.compiler.isShutdown()) {
+            return;
+        }
+
+        if (this.scheduled != null) {
+            this.scheduled.cancel(false);
+        }
+        this.scheduled = this.compiler.schedule(this::compile, COMPILE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /** Compiles the current declarations, unless they were compiled already. */
+    private void compile() {
+        String source;
+        Map<String, String> included;
+        List<String> cmd = new ArrayList<>();
+        Path dir;
+        int number;
+        synchronized (this) {
+            included = new LinkedHashMap<>(this.declarations);
+            source = this.generate(included);
+            if (source.equals(this.compiledSource)) {
+                return;
+            }
+
+            try {
+                if (this.directory == null) {
+                    this.directory = Files.createTempDirectory("viskell");
+                }
+                number = this.version + 1;
+                dir = Files.createDirectories(this.directory.resolve("v" + number));
+            } catch (IOException e) {
+                this.onError.accept(e.getMessage());
+                return;
+            }
+
+            cmd.addAll(this.command);
+        }
+
+        Path file = dir.resolve(NAME + ".hs");
+        cmd.addAll(Arrays.asList("--make", "-O2", "-fobject-code", "-odir", dir.toString(), "-hidir", dir.toString(), file.toString()));
+
+        try {
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            Process ghc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            String output = CharStreams.toString(new InputStreamReader(ghc.getInputStream(), StandardCharsets.UTF_8));
+            if (ghc.waitFor() != 0) {
+                this.onError.accept(output);
+                return;
+            }
+        } catch (IOException e) {
+            this.onError.accept(e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (this) {
+            this.compiledSource = source;
+            this.version = number;
+        }
+        this.onCompiled.accept(new Build(number, file, included));
+    }
+
+    /** @return the source of a module with the given declarations. */
+    private String generate(Map<String, String> included) {
+        StringBuilder source = new StringBuilder();
+        source.append("module ").append(NAME).append(" where\n\n");
+        if (this.imports.stream().anyMatch(module -> module.endsWith(".Prelude"))) {
+            // an explicit import of the Prelude keeps it from clashing with the alternative one, as in ghci
+            source.append("import qualified Prelude\n");
+        }
+        for (String module : this.imports) {
+            source.append("import ").append(module).append('\n');
+        }
+        source.append('\n');
+        for (String declaration : included.values()) {
+            source.append(Joiner.on('\n').join(declaration.split("; ", 2))).append("\n\n");
+        }
+        return source.toString();
+    }
+
+    /** Stops compiling, and removes all compiled versions. */
+    synchronized void close() {
+        this.compiler.shutdownNow();
+        if (this.directory == null) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** A compiled version of the module. */
+    static final class Build {
+        /** The number of this version, counting from one. */
+        final int version;
+
+        /** The source file, next to the object and interface files. */
+        final Path source;
+
+        /** The declarations in this version, by the name they define. */
+        final Map<String, String> declarations;
+
+        private Build(int version, Path source, Map<String, String> declarations) {
+            this.version = version;
+            this.source = source;
+            this.declarations = declarations;
+        }
+    }
+}
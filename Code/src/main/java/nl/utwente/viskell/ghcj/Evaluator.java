@@ -2,13 +2,30 @@ package nl.utwente.viskell.ghcj;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Evaluator class. Haskell expressions (strings) go in, results (strings)
@@ -17,39 +34,164 @@ import java.util.List;
  * Uses an actual interpreter as a subprocess. Which interpreter that is is
  * decided by a subclass. Which subclass to pick is decided by GhciSession.
  *
- * Not to be used from multiple threads.
+ * Not to be used from multiple threads, unless it is in pipelined mode.
+ * In pipelined mode a writer thread sends commands to ghci as soon as they
+ * are submitted, while a reader thread completes the futures of the sent
+ * commands in order, so several commands can be in flight at once.
+ *
+ * A pipelined evaluator can interrupt the command ghci is running. After an
+ * interrupt the responses can no longer be matched with commands, so the
+ * reader sends a marker and discards everything up to its echo. All commands
+ * that were in flight until then fail with an Interrupted exception, so the
+ * caller can submit them again.
+ *
+ * Commands can have a time limit. A watchdog interrupts a command that runs
+ * longer than that, and kills ghci if it does not recover from an interrupt.
+ * After that the evaluator is no longer alive, and every command fails.
+ *
+ * Responses are limited in size. The output of a command that goes over the
+ * limit is discarded up to the next prompt, and its response ends with a
+ * truncation marker instead.
+ *
+ * Several expressions can be evaluated in a single command. Each of them is
+ * shown and fully evaluated separately, and written as a Frame, so that an
+ * exception in one of them does not affect the others. Framed responses are
+ * parsed by their length prefixes, instead of being scanned for errors.
  */
 abstract public class Evaluator {
     /** Responses from ghci are terminated by a null byte. */
     protected static final char SENTINEL = 0;
 
+    /** The message ghci prints when it receives an interrupt signal. */
+    private static final String INTERRUPTED = "Interrupted.";
+
+    /** The prefix of the string literal that is evaluated as a marker after an interrupt. */
+    private static final String RESYNC = "viskell-resync-";
+
+    /** How often the watchdog checks the running command, in milliseconds. */
+    private static final long WATCH_INTERVAL = 100;
+
+    /** How long ghci gets to recover from an interrupt before it is killed, in nanoseconds. */
+    private static final long KILL_GRACE = TimeUnit.SECONDS.toNanos(3);
+
+    /** Runs the watchdogs of all pipelined evaluators. */
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ghci-watchdog").setDaemon(true).build());
+
+    /** Defines the function that writes a single frame, given the tag and payload, and sends it on right away. */
+    private static final String FRAME_HELPER = "let viskellFrame t s = "
+            + "Prelude.putStr (t : Prelude.shows (Prelude.length s) (':' : s)) Prelude.>> System.IO.hFlush System.IO.stdout";
+
+    /** Defines the function that fully evaluates a payload, and writes it with the given tag or its exception as a frame. */
+    private static final String WRITE_HELPER = "let viskellWrite t s = Control.Exception.catch "
+            + "(Control.Exception.evaluate (Prelude.foldr Prelude.seq () s) Prelude.>> viskellFrame t s) "
+            + "(\\e -> viskellFrame '" + Frame.EXCEPTION + "' (Prelude.show (e :: Control.Exception.SomeException)))";
+
+    /** Defines the function that writes a shown value as a frame. */
+    private static final String ITEM_HELPER = "let viskellItem x = viskellWrite '" + Frame.VALUE + "' (Prelude.show x)";
+
+    /**
+     * Defines the function that shows a window of a list one element at a time, ending with a bracket, or dots if there is more.
+     * It returns the rest of the list after the window, so that can be bound to show the next window from.
+     */
+    private static final String STREAM_HELPER = "let viskellStream first n xs = "
+            + "Prelude.mapM_ (\\(j, x) -> Prelude.putStr ((if first Prelude.&& j Prelude.== (0 :: Prelude.Int) then '[' else ',') : Prelude.show x) "
+            + "Prelude.>> System.IO.hFlush System.IO.stdout) (Prelude.zip [0..] (Prelude.take n xs)) "
+            + "Prelude.>> (let rest = Prelude.drop n xs in Prelude.putStr (if Prelude.not (Prelude.null rest) then \",...\" "
+            + "else if first Prelude.&& Prelude.null xs then \"[]\" else \"]\") Prelude.>> (Prelude.return Prelude.$! rest))";
+
+    /** Defines the function that writes the first characters of a shown value as a frame. */
+    private static final String BRIEF_HELPER = "let viskellBrief n x = viskellWrite '" + Frame.VALUE + "' (Prelude.take n (Prelude.show x))";
+
+    /** Defines the function that writes a list of numbers as a compact frame. */
+    private static final String NUMBERS_HELPER = "let viskellNumbers xs = viskellWrite '" + Frame.NUMBERS + "' "
+            + "(Prelude.unwords (Prelude.map Prelude.show (xs :: [Prelude.Double])))";
+
+    /** All helpers, in the order they need to be defined. */
+    private static final List<String> HELPERS = ImmutableList.of(FRAME_HELPER, WRITE_HELPER, ITEM_HELPER, BRIEF_HELPER, NUMBERS_HELPER, STREAM_HELPER);
+
     /** All communication is done over UTF_8. */
     protected static final Charset UTF_8 = StandardCharsets.UTF_8;
 
+    /** The ghci process. */
+    private final Process process;
+
     /** Raw input stream for result data from ghci to the application. */
     protected final InputStream in;
 
+    /** Buffered reader for the sentinel terminated responses on the input stream. */
+    private final SentinelReader reader;
+
     /** Raw output stream from the application to ghci. */
     protected final OutputStream out;
 
     /** A newline character. */
     protected final String NL;
 
+    /** Commands submitted in pipelined mode that still need to be written to ghci. */
+    private final BlockingQueue<PendingEval> outbox;
+
+    /** Commands written to ghci in pipelined mode that still wait for their response, in order. */
+    private final BlockingQueue<PendingEval> inFlight;
+
+    /** The thread writing commands in pipelined mode, or null. */
+    private volatile Thread writerThread;
+
+    /** The thread reading responses in pipelined mode, or null. */
+    private Thread readerThread;
+
+    /** The reason communication with ghci failed in pipelined mode, or null. */
+    private volatile HaskellException failure;
+
+    /** Guards writing to ghci, so the writer thread and the reader sending a marker don't interleave. */
+    private final Object writeLock;
+
+    /** Guards the interrupt state below, and the matching of responses with commands. */
+    private final Object interruptLock;
+
+    /** Whether an interrupt signal was sent, for which ghci has not yet answered. */
+    private boolean interruptSent;
+
+    /** The marker sent to resynchronize after an interrupt, or null when responses match commands. */
+    private PendingEval resyncMarker;
+
+    /** The number of markers sent, to make each marker unique. */
+    private int resyncCount;
+
+    /** When the last interrupt signal was sent, in nanoseconds. */
+    private long interruptedAt;
+
+    /** The command the watchdog saw running last time, or null. */
+    private PendingEval watched;
+
+    /** Since when the watched command is running, in nanoseconds. */
+    private long watchedSince;
+
+    /** The periodic check of the watchdog, or null when not pipelined. */
+    private ScheduledFuture<?> watchdog;
+
     public Evaluator() throws HaskellException {
         this.NL = System.getProperty("line.separator");
+        this.outbox = new LinkedBlockingQueue<>();
+        this.inFlight = new LinkedBlockingQueue<>();
+        this.writeLock = new Object();
+        this.interruptLock = new Object();
 
         try {
-            /* The ghci process to use. */
-            Process process = new ProcessBuilder(getCommand())
+            this.process = new ProcessBuilder(getCommand())
                     .redirectErrorStream(true)
                     .start();
 
-            this.in = process.getInputStream();
-            this.out = process.getOutputStream();
+            this.in = this.process.getInputStream();
+            this.out = this.process.getOutputStream();
         } catch (IOException io) {
             throw new HaskellException(io);
         }
 
+        /* Keep a single huge result from exhausting the heap, by cutting it off. */
+        this.reader = new SentinelReader(Channels.newChannel(this.in), (byte) SENTINEL,
+                SentinelReader.BUFFER_SIZE, GhciSession.pickOutputLimit());
+
         /* Make it so that GHCi prints a null byte to its standard output when
            it expects input. By setting the prompt to a zero byte, GHCi will
            print a zero byte whenever it expects the user (that's us) to enter
@@ -64,6 +206,11 @@ abstract public class Evaluator {
         /* Make it so that GHCi resets bindings after every command. This makes
            it slightly less likely that GHCi state will affect our results. */
         this.eval(":set +r");
+
+        /* Define the helpers for framed and streamed responses. */
+        for (String helper : HELPERS) {
+            this.eval(helper);
+        }
     }
 
     /**
@@ -71,14 +218,49 @@ abstract public class Evaluator {
      * @throws HaskellException when closing the channels fails.
      */
     public final void close() throws HaskellException {
+        if (this.writerThread != null) {
+            this.writerThread.interrupt();
+            this.watchdog.cancel(false);
+        }
+
         try {
             this.in.close();
             this.out.close();
         } catch (IOException e) {
             throw new HaskellException(e);
+        } finally {
+            this.process.destroy();
         }
     }
 
+    /**
+     * Switches this evaluator to pipelined mode, starting the writer and reader threads.
+     * After this all evaluation goes through the pipeline.
+     */
+    public final synchronized void startPipeline() {
+        if (this.writerThread != null) {
+            return;
+        }
+
+        this.writerThread = new Thread(this::writeCommands, "ghci-writer");
+        this.readerThread = new Thread(this::readResponses, "ghci-reader");
+        this.writerThread.setDaemon(true);
+        this.readerThread.setDaemon(true);
+        this.writerThread.start();
+        this.readerThread.start();
+        this.watchdog = WATCHDOG.scheduleWithFixedDelay(this::watch, WATCH_INTERVAL, WATCH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return whether this evaluator is in pipelined mode. */
+    public final boolean isPipelined() {
+        return this.writerThread != null;
+    }
+
+    /** @return whether ghci can still evaluate commands, which is no longer the case after the pipeline failed. */
+    public final boolean isAlive() {
+        return this.failure == null;
+    }
+
     /**
      * Evaluates a Haskell expression and wait for it to compute.
      *
@@ -87,26 +269,301 @@ abstract public class Evaluator {
      * @throws HaskellException when ghci is not ready to evaluate, or expression can not be computed.
      */
     public final String eval(final String cmd) throws HaskellException {
-        StringBuilder responseBuilder = new StringBuilder();
+        if (this.isPipelined()) {
+            try {
+                return this.evalAsync(cmd).get();
+            } catch (InterruptedException e) {
+                throw new HaskellException(e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof HaskellException ? (HaskellException) e.getCause() : new HaskellException(e);
+            }
+        }
+
+        String response;
 
         try {
             // Send the expression to ghci.
-            this.out.write(cmd.getBytes(UTF_8));
+            byte[] bytes = cmd.getBytes(UTF_8);
+            this.out.write(bytes);
             this.out.write('\n');
             this.out.flush();
+            Metrics.get().commands.increment();
+            Metrics.get().bytesSent.add(bytes.length + 1);
 
             // Wait for the sentinel.
-            int input;
-            while ((input = this.in.read()) != 0) {
-                responseBuilder.append((char) input);
-            }
+            response = this.reader.readResponse();
         } catch (IOException e) {
             throw new HaskellException(e);
         }
 
-        String response = responseBuilder.toString();
+        return this.checkResponse(response);
+    }
+
+    /**
+     * Submits a Haskell expression to the pipeline, without waiting for its result.
+     * Responses are matched with commands in the order the commands were submitted.
+     *
+     * @param cmd The (complete) Haskell
+     * @return the future result, including newline.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<String> evalAsync(final String cmd) {
+        return this.evalAsync(cmd, 0);
+    }
+
+    /**
+     * Submits a Haskell expression to the pipeline, with a limit on how long ghci may take to compute it.
+     * A command that takes too long is interrupted, and its result fails with a HaskellException.
+     *
+     * @param cmd The (complete) Haskell
+     * @param timeout The maximum running time in milliseconds, or zero for no limit.
+     * @return the future result, including newline.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<String> evalAsync(final String cmd, final long timeout) {
+        return this.submit(cmd, timeout, false, null);
+    }
+
+    /**
+     * Submits a Haskell expression to the pipeline, passing on its output while it is being computed.
+     *
+     * @param cmd The (complete) Haskell
+     * @param timeout The maximum running time in milliseconds, or zero for no limit.
+     * @param progress Receives the chunks of output as they arrive, on the reader thread.
+     * @return the future result, including newline.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<String> evalStreamingAsync(final String cmd, final long timeout, final Consumer<String> progress) {
+        return this.submit(cmd, timeout, false, progress);
+    }
+
+    /**
+     * Submits a command that writes frames to the pipeline. The response is not
+     * scanned for errors, instead it needs to be parsed with parseFrames.
+     *
+     * @param cmd The (complete) Haskell, that writes its result as frames.
+     * @param timeout The maximum running time in milliseconds, or zero for no limit.
+     * @return the future raw response.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<String> evalFramedAsync(final String cmd, final long timeout) {
+        return this.submit(cmd, timeout, true, null);
+    }
+
+    /** Adds a command to the outbox of the pipeline. */
+    private ListenableFuture<String> submit(final String cmd, final long timeout, final boolean framed, final Consumer<String> progress) {
+        if (!this.isPipelined()) {
+            throw new IllegalStateException("Evaluator is not in pipelined mode");
+        }
+
+        PendingEval pending = new PendingEval(cmd, framed);
+        pending.progress = progress;
+        pending.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (this.failure != null) {
+            pending.future.setException(this.failure);
+        } else {
+            this.outbox.add(pending);
+            if (this.failure != null) {
+                // the pipeline broke down while adding
+                this.failAll(this.failure);
+            }
+        }
+
+        return pending.future;
+    }
+
+    /**
+     * Submits several Haskell expressions to the pipeline as a single command.
+     * Every expression is shown and fully evaluated separately, so it gets a
+     * frame with either its value or its exception.
+     *
+     * @param exprs The expressions, which all need to be showable.
+     * @param timeout The maximum running time in milliseconds for all of them, or zero for no limit.
+     * @return the future frames, one for every expression in order.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<List<Frame>> evalBatchAsync(final List<String> exprs, final long timeout) {
+        return this.evalBatchAsync(exprs, timeout, null);
+    }
+
+    /**
+     * Submits several Haskell expressions to the pipeline as a single command,
+     * passing on the frame of every expression as soon as it arrives. Those
+     * frames are still there if the command as a whole fails later on, for
+     * instance because a later expression takes too long.
+     *
+     * @param exprs The expressions, which all need to be showable.
+     * @param timeout The maximum running time in milliseconds for all of them, or zero for no limit.
+     * @param arrived Receives the frames in order while the response arrives, on the reader thread, or null.
+     * @return the future frames, one for every expression in order.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<List<Frame>> evalBatchAsync(final List<String> exprs, final long timeout, final Consumer<Frame> arrived) {
+        Consumer<String> progress = arrived == null ? null : new Frame.Collector(arrived);
+        return Futures.transform(this.submit(itemsCommand(exprs), timeout, true, progress), (AsyncFunction<String, List<Frame>>) response -> {
+            List<Frame> frames = this.parseFrames(response);
+            if (frames.size() != exprs.size()) {
+                throw new HaskellException("Expected " + exprs.size() + " frames, got " + frames.size());
+            }
+            return Futures.immediateFuture(frames);
+        });
+    }
+
+    /**
+     * @param exprs Haskell expressions, which all need to be showable.
+     * @return The command that writes the value or exception of every expression as a frame, in order.
+     */
+    static String itemsCommand(final List<String> exprs) {
+        StringBuilder cmd = new StringBuilder("Prelude.sequence_ [");
+        for (int i = 0; i < exprs.size(); i++) {
+            cmd.append(i == 0 ? "" : ", ").append("viskellItem (").append(exprs.get(i)).append(')');
+        }
+        return cmd.append(']').toString();
+    }
+
+    /**
+     * Loads a module that was compiled to object code, so that its definitions are available to later commands.
+     * Loading replaces all earlier let bindings, so afterwards the modules and helpers are set up again.
+     * @param source The source file of the module, next to its object and interface files.
+     * @return the future response to loading the module.
+     * @throws IllegalStateException when this evaluator is not in pipelined mode.
+     */
+    public final ListenableFuture<String> loadAsync(final Path source) {
+        // the flags need to match those of the compiled module, or ghci interprets it after all
+        String dir = source.getParent().toString();
+        this.evalAsync(":set -fobject-code -O2 -odir " + dir + " -hidir " + dir);
+        ListenableFuture<String> loaded = this.evalAsync(":load " + source);
+        // back to the defaults, which only matter for later loads
+        this.evalAsync(":set -fbyte-code -O0");
+        this.evalAsync(":module + " + Joiner.on(" ").join(getModules()));
+        HELPERS.forEach(this::evalAsync);
+        return loaded;
+    }
+
+    /**
+     * Interrupts an evaluation in the pipeline, if that is possible. A command
+     * that was not yet sent is simply dropped. A command that ghci is running
+     * is interrupted with a signal, which also fails the other commands in
+     * flight with an Interrupted exception.
+     *
+     * @param evaluation The future returned by evalAsync for the command.
+     * @return whether the evaluation is, or will be, failed with an Interrupted exception.
+     */
+    public final boolean interrupt(ListenableFuture<String> evaluation) {
+        synchronized (this.interruptLock) {
+            for (PendingEval pending : this.outbox) {
+                if (pending.future == evaluation && this.outbox.remove(pending)) {
+                    return pending.future.setException(new Interrupted());
+                }
+            }
+
+            if (this.interruptSent || this.resyncMarker != null) {
+                // everything in flight is failed already, once the marker comes back
+                return this.inFlight.stream().anyMatch(pending -> pending.future == evaluation);
+            }
+
+            PendingEval running = this.inFlight.peek();
+            if (running == null || running.future != evaluation || !this.signal("INT")) {
+                return false;
+            }
+
+            this.interruptSent = true;
+            this.interruptedAt = System.nanoTime();
+            Metrics.get().interrupts.increment();
+            return true;
+        }
+    }
+
+    /** Periodic check of the watchdog on the running command, and on the recovery from interrupts. */
+    private void watch() {
+        long now = System.nanoTime();
+        synchronized (this.interruptLock) {
+            if (this.failure != null) {
+                return;
+            }
+
+            if (this.interruptSent || this.resyncMarker != null) {
+                if (now - this.interruptedAt > KILL_GRACE) {
+                    this.kill("ghci did not recover from an interrupt");
+                }
+                return;
+            }
+
+            PendingEval running = this.inFlight.peek();
+            if (running != this.watched) {
+                this.watched = running;
+                this.watchedSince = now;
+            } else if (running != null && running.timeout > 0 && now - this.watchedSince > running.timeout) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(running.timeout);
+                running.future.setException(new HaskellException("Evaluation took longer than " + millis + " ms"));
+                Metrics.get().timeouts.increment();
+
+                if (this.signal("INT")) {
+                    this.interruptSent = true;
+                    this.interruptedAt = now;
+                    Metrics.get().interrupts.increment();
+                } else {
+                    this.kill("ghci can not be interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Kills the ghci process, failing all pending commands.
+     * @param reason Why ghci is killed.
+     */
+    private void kill(String reason) {
+        this.failAll(new HaskellException(reason));
+        this.process.destroyForcibly();
+    }
+
+    /**
+     * Sends a signal to the ghci process.
+     * @param signal The name of the signal.
+     * @return whether the signal could be sent.
+     */
+    private boolean signal(String signal) {
+        long pid = pidOf(this.process);
+        if (pid < 0) {
+            return false;
+        }
+
+        try {
+            new ProcessBuilder("kill", "-" + signal, Long.toString(pid)).start();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-        // Check for hints that something went wrong
+    /**
+     * @param process A running process.
+     * @return The operating system process id, or -1 if it is not available on this platform.
+     */
+    private static long pidOf(Process process) {
+        try {
+            // Java 9 and newer
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            // Java 8 on unix, where the pid is a field of the implementation
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException e2) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Checks a response for hints that something went wrong.
+     * @param response The raw response of ghci.
+     * @return The response, if it looks like a valid result.
+     * @throws HaskellException when the response looks like an error or exception.
+     */
+    private String checkResponse(String response) throws HaskellException {
         // To do: Make this better
 
         String exceptionHeader = "*** Exception: ";
@@ -131,10 +588,232 @@ abstract public class Evaluator {
         return response;
     }
 
+    /**
+     * Parses a framed response. A response that is not framed at all, such as
+     * a compile error, is checked for errors instead.
+     * @param response The raw response to a command submitted with evalFramedAsync.
+     * @return The frames in the response, in order.
+     * @throws HaskellException when the command failed, or the response is malformed.
+     */
+    public final List<Frame> parseFrames(String response) throws HaskellException {
+        return Frame.parseAll(this.checkFramed(response));
+    }
+
+    /**
+     * Checks that a response consists of frames, without parsing them yet.
+     * @param response The raw response to a command submitted with evalFramedAsync.
+     * @return the response.
+     * @throws HaskellException with the error ghci reported, when the response is not framed.
+     */
+    public final String checkFramed(String response) throws HaskellException {
+        if (!response.isEmpty() && !Frame.isTag(response.charAt(0))) {
+            // ghci could not run the command
+            this.checkResponse(response);
+            throw new HaskellException("Malformed framed response: " + response);
+        }
+
+        return response;
+    }
+
+    /** Loop of the writer thread, sending submitted commands to ghci. */
+    private void writeCommands() {
+        try {
+            while (true) {
+                PendingEval pending = this.outbox.take();
+                synchronized (this.writeLock) {
+                    // register the command before sending it, so the reader always finds it
+                    this.inFlight.add(pending);
+                    if (this.failure != null) {
+                        this.failAll(this.failure);
+                        return;
+                    }
+
+                    byte[] bytes = pending.cmd.getBytes(UTF_8);
+                    pending.sentAt = System.nanoTime();
+                    this.out.write(bytes);
+                    this.out.write('\n');
+                    Metrics.get().commands.increment();
+                    Metrics.get().bytesSent.add(bytes.length + 1);
+
+                    // write all queued commands before flushing
+                    if (this.outbox.isEmpty()) {
+                        this.out.flush();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            this.failAll(new HaskellException("ghci pipeline closed"));
+        } catch (IOException e) {
+            this.failAll(new HaskellException(e));
+        }
+    }
+
+    /**
+     * Passes on a chunk of a response that is still arriving to the command it belongs to.
+     * @param chunk The part of the response that arrived since the previous chunk.
+     */
+    private void progress(String chunk) {
+        synchronized (this.interruptLock) {
+            // after an interrupt it is not known which command the output belongs to
+            if (this.interruptSent || this.resyncMarker != null) {
+                return;
+            }
+        }
+
+        PendingEval running = this.inFlight.peek();
+        if (running != null && running.progress != null && !running.future.isDone()) {
+            running.progress.accept(chunk);
+        }
+    }
+
+    /** Loop of the reader thread, completing the futures of sent commands in order. */
+    private void readResponses() {
+        try {
+            while (true) {
+                String response = this.reader.readResponse(this::progress);
+                if (this.resynchronize(response)) {
+                    continue;
+                }
+
+                PendingEval pending = this.inFlight.take();
+                Metrics.get().evalTime.observe(System.nanoTime() - pending.sentAt);
+                if (this.reader.isTruncated()) {
+                    Metrics.get().truncated.increment();
+                }
+
+                try {
+                    if (pending.framed && this.reader.isTruncated()) {
+                        // frames that are cut off can't be read
+                        throw new HaskellException("Output larger than " + GhciSession.pickOutputLimit() + " bytes");
+                    }
+                    pending.future.set(pending.framed ? response : this.checkResponse(response));
+                } catch (HaskellException e) {
+                    pending.future.setException(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            this.failAll(new HaskellException("ghci pipeline closed"));
+        } catch (IOException e) {
+            this.failAll(new HaskellException(e));
+        }
+    }
+
+    /**
+     * Deals with the responses that follow an interrupt signal.
+     * @param response The response that was just read.
+     * @return whether the response is consumed, and should not be matched with a command.
+     * @throws IOException when the marker can not be sent.
+     */
+    private boolean resynchronize(String response) throws IOException {
+        synchronized (this.interruptLock) {
+            if (this.resyncMarker != null) {
+                if (response.contains(RESYNC + this.resyncCount)) {
+                    // everything before the marker is lost, so fail it
+                    PendingEval pending;
+                    while ((pending = this.inFlight.poll()) != null && pending != this.resyncMarker) {
+                        pending.future.setException(new Interrupted());
+                    }
+
+                    this.resyncMarker = null;
+                }
+
+                return true;
+            }
+
+            if (this.interruptSent && endsInterrupted(response)) {
+                /* Ghci answers the signal with its own prompt, either instead of the
+                   response of the running command or in between two commands, so
+                   from here on responses can't be matched with commands. */
+                this.interruptSent = false;
+                this.resyncCount++;
+                this.resyncMarker = new PendingEval('"' + RESYNC + this.resyncCount + '"', false);
+                synchronized (this.writeLock) {
+                    this.inFlight.add(this.resyncMarker);
+                    this.out.write(this.resyncMarker.cmd.getBytes(UTF_8));
+                    this.out.write('\n');
+                    this.out.flush();
+                }
+
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether ghci ended a response with its own message about an interrupt, on the last line.
+     * The output of the interrupted command might precede the message on the same line.
+     * @param response The response, without the prompt.
+     * @return whether the last line of the response ends with the message.
+     */
+    static boolean endsInterrupted(String response) {
+        int end = response.length();
+        while (end > 0 && Character.isWhitespace(response.charAt(end - 1))) {
+            end--;
+        }
+        return response.startsWith(INTERRUPTED, end - INTERRUPTED.length());
+    }
+
+    /** Fails all pending commands, and every command submitted after this. */
+    private void failAll(HaskellException cause) {
+        if (this.failure == null) {
+            this.failure = cause;
+        }
+
+        PendingEval pending;
+        while ((pending = this.inFlight.poll()) != null) {
+            pending.future.setException(this.failure);
+        }
+
+        while ((pending = this.outbox.poll()) != null) {
+            pending.future.setException(this.failure);
+        }
+    }
+
     /** @return the command and arguments for the subprocess. */
     protected abstract List<String> getCommand();
 
     /** @return the list of modules to load automatically. */
     protected abstract List<String> getModules();
 
+    /** @return the command and arguments for compiling a module to object code. */
+    protected abstract List<String> getCompiler();
+
+    /** The failure of a command that was interrupted, or lost its response to an interrupt. */
+    static final class Interrupted extends HaskellException {
+        private static final long serialVersionUID = 1L;
+
+        Interrupted() {
+            super("Evaluation interrupted");
+        }
+    }
+
+    /** A command in the pipeline with the future that receives its response. */
+    private static final class PendingEval {
+        /** The Haskell code to send. */
+        private final String cmd;
+
+        /** The future for the response. */
+        private final SettableFuture<String> future;
+
+        /** The maximum running time in nanoseconds, or zero for no limit. */
+        private long timeout;
+
+        /** Receives the chunks of the response as they arrive, or null. */
+        private Consumer<String> progress;
+
+        /** Whether the response consists of frames, and is not checked for errors. */
+        private final boolean framed;
+
+        /** When the command was sent to ghci, in nanoseconds. */
+        private long sentAt;
+
+        private PendingEval(String cmd, boolean framed) {
+            this.cmd = cmd;
+            this.framed = framed;
+            this.future = SettableFuture.create();
+        }
+    }
+
 }
@@ -0,0 +1,282 @@
+package nl.utwente.viskell.ghcj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The result of a single item in a framed response from ghci.
+ *
+ * A frame is written as a tag character, the length of the payload in
+ * characters, a colon and the payload itself. The length prefix makes it safe
+ * for the payload to contain anything, including newlines and other frames.
+ *
+ * A list of numbers is written compactly as a single frame, with the numbers
+ * shown and separated by spaces, so it can be read without parsing Haskell.
+ */
+public final class Frame {
+    /** Tag of a frame with a shown value. */
+    public static final char VALUE = '+';
+
+    /** Tag of a frame with the message of an exception. */
+    public static final char EXCEPTION = '!';
+
+    /** Tag of a frame with a list of numbers. */
+    public static final char NUMBERS = '#';
+
+    /** The number of characters of a response that are put in the message of a parse error. */
+    private static final int EXCERPT = 200;
+
+    /** What kind of frame this is. */
+    private final char tag;
+
+    /** The contents of the frame. */
+    private final String payload;
+
+    /**
+     * @param tag What kind of frame this is.
+     * @param payload The contents of the frame.
+     */
+    Frame(char tag, String payload) {
+        this.tag = tag;
+        this.payload = payload;
+    }
+
+    /** @return whether this frame holds a value, rather than an exception. */
+    public boolean isValue() {
+        return this.tag != EXCEPTION;
+    }
+
+    /** @return what kind of frame this is. */
+    public char getTag() {
+        return this.tag;
+    }
+
+    /** @return the value or exception message. */
+    public String getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * @return the numbers in a frame with a list of numbers.
+     * @throws HaskellException when this frame does not hold a list of numbers.
+     */
+    public double[] getNumbers() throws HaskellException {
+        if (this.tag != NUMBERS) {
+            throw new HaskellException(this.isValue() ? "Not a list of numbers: " + this.payload : this.payload);
+        }
+
+        return parseNumbers(this.payload);
+    }
+
+    /**
+     * Reads the space separated numbers of a frame with a list of numbers.
+     * @param payload The payload of the frame.
+     * @return The numbers, in order.
+     * @throws HaskellException when the payload contains something else than numbers.
+     */
+    public static double[] parseNumbers(String payload) throws HaskellException {
+        if (payload.isEmpty()) {
+            return new double[0];
+        }
+
+        int count = 1;
+        for (int i = payload.indexOf(' '); i >= 0; i = payload.indexOf(' ', i + 1)) {
+            count++;
+        }
+
+        double[] numbers = new double[count];
+        int start = 0;
+        for (int n = 0; n < count; n++) {
+            int end = payload.indexOf(' ', start);
+            end = end < 0 ? payload.length() : end;
+            try {
+                numbers[n] = Double.parseDouble(payload.substring(start, end));
+            } catch (NumberFormatException e) {
+                throw new HaskellException("Malformed number in frame: " + payload.substring(start, end));
+            }
+            start = end + 1;
+        }
+
+        return numbers;
+    }
+
+    /** @return whether a character is the tag of a frame. */
+    public static boolean isTag(char c) {
+        return c == VALUE || c == EXCEPTION || c == NUMBERS;
+    }
+
+    /**
+     * Splits a response into frames.
+     * @param response The response of ghci.
+     * @return The frames in the response, in order.
+     * @throws HaskellException when the response is not a sequence of frames.
+     */
+    public static List<Frame> parseAll(String response) throws HaskellException {
+        List<Frame> frames = new ArrayList<>();
+        int pos = 0;
+        while (pos < response.length()) {
+            int colon = colonAt(response, pos);
+            int end = colon < 0 ? -1 : skip(response, colon + 1, lengthAt(response, pos, colon));
+            if (end < 0) {
+                throw new HaskellException("Truncated framed response: " + excerpt(response));
+            }
+
+            frames.add(new Frame(response.charAt(pos), response.substring(colon + 1, end)));
+            pos = end;
+        }
+
+        return frames;
+    }
+
+    /**
+     * Finds the colon that ends the header of the frame that starts at a position.
+     * @param response The response of ghci, or the part of it that arrived so far.
+     * @param pos The position of the tag of the frame.
+     * @return The position of the colon, or -1 if not all of the header is there.
+     * @throws HaskellException when there is no frame at the position.
+     */
+    private static int colonAt(CharSequence response, int pos) throws HaskellException {
+        if (!isTag(response.charAt(pos))) {
+            throw new HaskellException("Malformed framed response: " + excerpt(response));
+        }
+
+        int colon = pos + 1;
+        while (colon < response.length() && Character.isDigit(response.charAt(colon))) {
+            colon++;
+        }
+        if (colon == response.length()) {
+            return -1;
+        } else if (colon == pos + 1 || response.charAt(colon) != ':') {
+            throw new HaskellException("Malformed framed response: " + excerpt(response));
+        }
+        return colon;
+    }
+
+    /** @return the length of the payload of the frame with its tag at pos and its colon at colon. */
+    private static int lengthAt(CharSequence response, int pos, int colon) throws HaskellException {
+        try {
+            return Integer.parseInt(response.subSequence(pos + 1, colon).toString());
+        } catch (NumberFormatException e) {
+            throw new HaskellException("Malformed framed response: " + excerpt(response));
+        }
+    }
+
+    /**
+     * Walks over a number of characters, as Haskell counts them, which are code points.
+     * @param response The response of ghci, or the part of it that arrived so far.
+     * @param pos Where to start.
+     * @param count The number of code points to walk over.
+     * @return The position after them, or -1 if the response ends before that.
+     */
+    private static int skip(CharSequence response, int pos, int count) {
+        for (int n = 0; n < count && pos >= 0; n++) {
+            pos = next(response, pos);
+        }
+        return pos;
+    }
+
+    /** @return the position after the code point at pos, or -1 if the response ends before it does. */
+    private static int next(CharSequence response, int pos) {
+        if (pos >= response.length()) {
+            return -1;
+        } else if (Character.isHighSurrogate(response.charAt(pos))) {
+            // the low surrogate might not have arrived yet
+            if (pos + 1 == response.length()) {
+                return -1;
+            }
+            return Character.isLowSurrogate(response.charAt(pos + 1)) ? pos + 2 : pos + 1;
+        }
+        return pos + 1;
+    }
+
+    /** @return the start of a response, short enough to put in a message. */
+    private static String excerpt(CharSequence response) {
+        return response.length() > EXCERPT ? response.subSequence(0, EXCERPT) + "..." : response.toString();
+    }
+
+    /**
+     * Splits a response into frames while it arrives, passing on every frame as soon as it is complete.
+     * A response that turns out not to be framed is ignored, as it is checked once it is complete.
+     * Every character is looked at once, however the response is split into chunks.
+     */
+    static final class Collector implements Consumer<String> {
+        /** Receives the frames in order. */
+        private final Consumer<Frame> receiver;
+
+        /** The part of the response from the frame that is not complete yet, or null if the response is not framed. */
+        private StringBuilder rest;
+
+        /** The position of the payload of the incomplete frame in the rest, or -1 if its header is not complete yet. */
+        private int payload;
+
+        /** The position in the rest up to which the payload was walked over. */
+        private int scanned;
+
+        /** The number of code points of the payload that did not arrive yet. */
+        private int remaining;
+
+        /**
+         * @param receiver Receives the frames in order.
+         */
+        Collector(Consumer<Frame> receiver) {
+            this.receiver = receiver;
+            this.rest = new StringBuilder();
+            this.payload = -1;
+        }
+
+        @Override
+        public void accept(String chunk) {
+            if (this.rest == null) {
+                return;
+            }
+
+            this.rest.append(chunk);
+            try {
+                int start = 0;
+                while (true) {
+                    if (this.payload < 0) {
+                        if (start == this.rest.length()) {
+                            break;
+                        }
+                        int colon = colonAt(this.rest, start);
+                        if (colon < 0) {
+                            break;
+                        }
+                        this.remaining = lengthAt(this.rest, start, colon);
+                        this.payload = colon + 1;
+                        this.scanned = this.payload;
+                    }
+
+                    int next;
+                    while (this.remaining > 0 && (next = next(this.rest, this.scanned)) >= 0) {
+                        this.scanned = next;
+                        this.remaining--;
+                    }
+                    if (this.remaining > 0) {
+                        break;
+                    }
+
+                    this.receiver.accept(new Frame(this.rest.charAt(start), this.rest.substring(this.payload, this.scanned)));
+                    start = this.scanned;
+                    this.payload = -1;
+                }
+
+                // only the incomplete frame is kept
+                this.rest.delete(0, start);
+                if (this.payload >= 0) {
+                    this.payload -= start;
+                    this.scanned -= start;
+                }
+            } catch (HaskellException e) {
+                // not framed after all
+                this.rest = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.tag + this.payload;
+    }
+}
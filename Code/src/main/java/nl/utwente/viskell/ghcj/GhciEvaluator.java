@@ -23,4 +23,9 @@ public class GhciEvaluator extends Evaluator {
         return ImmutableList.of("Data.List", "Data.Maybe", "Data.Either", "Data.Monoid", "Data.Char", "Data.Ord", "Data.Function", "Control.Applicative", "Test.QuickCheck");
     }
 
+    @Override
+    protected List<String> getCompiler() {
+        return ImmutableList.of("ghc", "-fno-warn-overlapping-patterns");
+    }
+
 }
@@ -1,40 +1,162 @@
 package nl.utwente.viskell.ghcj;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.EvictingQueue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import nl.utwente.viskell.haskell.env.Environment;
 import nl.utwente.viskell.haskell.env.HaskellCatalog;
+import nl.utwente.viskell.haskell.eval.Interpreter;
 import nl.utwente.viskell.haskell.expr.Expression;
 import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.trace.Span;
+import nl.utwente.viskell.trace.Trace;
 import nl.utwente.viskell.ui.Main;
 
-import java.io.IOException;
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 
 /**
- * A conversation with an instance of ghci.
+ * A conversation with a pool of ghci instances.
+ *
+ * Requests are put in a shared work queue, every evaluator in the pool takes
+ * the next request as soon as its pipeline has room for it. The queue has a
+ * lane for every priority, so interactive requests overtake bulk work, while
+ * a lane that keeps being overtaken still gets its turn now and then. Let bindings
+ * are replayed on every evaluator, so they are visible to all later requests.
+ *
+ * A requester, such as a block, can ask for latest-wins evaluation. A newer
+ * request of the same requester supersedes its previous one: the result of the
+ * superseded request is cancelled for the requester, and if nobody else is
+ * interested it is dropped from the queue or interrupted in ghci.
+ *
+ * Submitting a request never waits. When the work queue is full, the overflow
+ * policy decides what gives way: the new request, an older request of the same
+ * requester, or the waiting request of the same requester that it is merged
+ * into. Let bindings always get in, as later requests depend on them.
+ *
+ * Every priority has a time limit for evaluating a request. An evaluation that
+ * takes longer is interrupted. When a ghci instance does not recover from that,
+ * it is killed and replaced, and the requests it was working on are replayed.
+ *
+ * In the shared mode the stable let bindings of the evaluated expressions
+ * are defined in ghci once, and reused by later expressions, see SharedBindings.
+ * The compiled mode also puts them in a module that is compiled to optimised
+ * object code in the background, see CompiledModule. Once compiled, the module
+ * is loaded into every evaluator in place of the interpreted bindings.
+ *
+ * The streams and frames of a requester may build on names that earlier ones
+ * left in ghci, such as the rest of a list that was partly shown. Such names only
+ * exist in the ghci instance that bound them, so all these requests of a
+ * requester go to the same instance. When that instance loses its names, by
+ * restarting or loading a module, the next request fails with StateLost, and
+ * the requester has to start over.
+ *
+ * A worker sends the expressions of cacheable requests that are waiting in
+ * the same lane together as a single command, so refreshing many blocks at
+ * once costs a single round trip to ghci.
  *
  * Public methods are safe to use from multiple threads.
  */
-public final class GhciSession extends AbstractExecutionThreadService {
-    /** Work queue. */
-    private ArrayBlockingQueue<AbstractMap.SimpleEntry<String, SettableFuture<String>>> queue;
+public final class GhciSession extends AbstractIdleService {
+    /** Work queue, shared by all evaluators in the pool. */
+    private final RequestQueue<Request> queue;
+
+    /** Requests in the work queue that have not been started yet, by cache key or expression, to share their results with identical requests. */
+    private final ConcurrentHashMap<String, Request> waiting;
+
+    /** The latest request of every requester that asked for latest-wins evaluation. */
+    private final Map<Object, Claim> latest;
+
+    /** The worker that keeps the names bound by the streams and frames of every requester. */
+    private final Map<Object, Pin> pins;
+
+    /** The number of requesters pinned so far, to spread them over the workers. */
+    private int pinCount;
+
+    /** The maximum number of requests waiting in the work queue, apart from let bindings. */
+    private final static int QUEUE_CAPACITY = 1024;
+
+    /** Stuff this into the work queue to stop a worker. */
+    private final static Request POISON = new Request(null, null, false, Priority.BULK);
+
+    /** The number of evaluators in the pool. */
+    private final int poolSize;
+
+    /** The number of requests each evaluator may have in flight at once. */
+    private final int pipelineDepth;
+
+    /** The workers that each own an evaluator of the pool. */
+    private final List<Worker> workers;
+
+    /** The threads running the workers. */
+    private ExecutorService threads;
+
+    /** Whether the session is shutting down, so no more workers should be started. */
+    private boolean stopping;
+
+    /** The let bindings pushed so far, the latest binding per name, in push order. */
+    private final LinkedHashMap<String, Request> bindings;
+
+    /** The sequence number of the most recent pushed binding. */
+    private long bindingSeq;
+
+    /** The backend this session communicates with. */
+    private final Backend backend;
+
+    /** How expressions are evaluated. */
+    private final Mode mode;
+
+    /** Whether simple expressions are evaluated by the interpreter in the JVM, instead of by ghci. */
+    private final boolean interpreted;
+
+    /** What gives way when the work queue is full. */
+    private final Overflow overflow;
+
+    /** Whether the work queue filled up, until a worker has taken it back down to half its capacity. */
+    private volatile boolean saturated;
 
-    /** Stuff this into the work queue to stop running. */
-    private final static String POISON = null;
+    /** The let bindings shared between expressions in the shared and compiled modes, or null. */
+    private final SharedBindings shared;
 
-    /** The evaluator this GhciSession will communicate with. */
-    private Evaluator ghci;
+    /** The module with the shared bindings in the compiled mode, or null. */
+    private final CompiledModule compiled;
+
+    /** The latest compiled version of the module, or null. Guarded by the bindings. */
+    private CompiledModule.Build build;
+
+    /** Results of earlier evaluated expressions, keyed by the backend and expression text. */
+    private final Cache<String, String> results;
+
+    /** The maximum total number of characters of the cached expressions and results. */
+    private final static int CACHE_WEIGHT = 1 << 22;
 
     /** Gets filled with a HaskellCatalog instance when ghci is ready. */
     private HaskellCatalog catalog;
@@ -45,52 +167,120 @@ public final class GhciSession extends AbstractExecutionThreadService {
     /** The number of errors to keep. */
     private final static int LOG_SIZE = 16;
 
+    /** How often a request may be replayed after it was lost to an interrupt or a killed evaluator. */
+    private final static int MAX_REPLAYS = 3;
+
+    /** The maximum number of expressions evaluated in a single command. */
+    private final static int MAX_BATCH = 64;
+
+    /** How long to wait for running evaluations when shutting down, in seconds. */
+    private final static int SHUTDOWN_GRACE = 5;
+
     public enum Backend {
         GHCi,
         Clash,
     }
 
+    /** The ways of evaluating expressions. */
+    public enum Mode {
+        /** Every expression is sent as a whole, including all the let bindings it depends on. */
+        INLINE,
+        /** Let bindings that stay the same are defined in ghci once, and reused. */
+        SHARED,
+        /**
+         * Like SHARED, but the shared bindings are also compiled to optimised object code.
+         * Still experimental, so it is not offered in the preferences window.
+         */
+        COMPILED,
+    }
+
+    /** What gives way when a request is submitted while the work queue is full. */
+    public enum Overflow {
+        /** The new request fails. */
+        REJECT,
+        /** The oldest waiting request of the same requester fails, or else the oldest one that is not more urgent. */
+        DROP_OLDEST,
+        /** The new request takes the place of the waiting request of the same requester, which it supersedes anyway. */
+        COALESCE,
+    }
+
+    /** The urgency of a request, in order from most to least urgent. */
+    public enum Priority {
+        /** Small requests a user is directly waiting for, such as type lookups. */
+        INTERACTIVE(5),
+        /** Refreshing the values shown on blocks. */
+        DISPLAY(10),
+        /** Large batches of work, such as sampling a function for a graph. */
+        BULK(60);
+
+        /** How long ghci may take to evaluate a request of this priority, in seconds. */
+        private final int timeout;
+
+        Priority(int timeout) {
+            this.timeout = timeout;
+        }
+
+        /** @return how long ghci may take to evaluate a request of this priority, in milliseconds. */
+        public long getTimeout() {
+            return TimeUnit.SECONDS.toMillis(this.timeout);
+        }
+    }
+
     /**
-     * Builds a new communication session with ghci.
+     * Builds a new communication session with ghci, using the pool size from the preferences.
      *
      * Starting the backend is delayed until startAsync() is called.
      */
     public GhciSession() {
+        this(pickPoolSize());
+    }
+
+    /**
+     * Builds a new communication session with a pool of ghci instances.
+     *
+     * Starting the backend is delayed until startAsync() is called.
+     * @param poolSize The number of evaluator processes to use, at least one.
+     */
+    public GhciSession(int poolSize) {
         super();
 
-        queue = new ArrayBlockingQueue<>(1024);
+        this.poolSize = Math.max(1, poolSize);
+        this.pipelineDepth = Math.max(1, pickPipelineDepth());
+        this.workers = new ArrayList<>();
+        this.bindings = new LinkedHashMap<>();
+        this.waiting = new ConcurrentHashMap<>();
+        this.latest = Collections.synchronizedMap(new WeakHashMap<>());
+        this.pins = Collections.synchronizedMap(new WeakHashMap<>());
+        this.bindingSeq = 0;
+        queue = new RequestQueue<>(QUEUE_CAPACITY);
+        this.overflow = pickOverflow();
         errors = EvictingQueue.create(LOG_SIZE);
-        switch (pickBackend()) {
-            case Clash: 
+        this.results = CacheBuilder.newBuilder()
+                .maximumWeight(CACHE_WEIGHT)
+                .weigher((String key, String value) -> key.length() + value.length())
+                .build();
+        this.backend = pickBackend();
+        switch (this.backend) {
+            case Clash:
                 this.catalog = new HaskellCatalog("/catalog/clash.xml");
                 break;
             default:
                 this.catalog = new HaskellCatalog("/catalog/haskell.xml");
                 break;
         }
-    }
-
-    @Override
-    protected void run() throws Exception {
-        while (true) {
-            AbstractMap.SimpleEntry<String, SettableFuture<String>> x = queue.take();
-
-            String expr = x.getKey();
-            SettableFuture<String> future = x.getValue();
 
-            if (Objects.equals(expr, POISON)) {
-                // Something wants us to quit - do so.
-                break;
-            } else {
-                try {
-                    String result = this.ghci.eval(expr);
-                    future.set(result.trim());
-                } catch (HaskellException e) {
-                    future.setException(e);
-                    errors.add(e.getMessage());
-                }
-            }
+        this.mode = pickMode();
+        // the interpreter knows the semantics of the Prelude only
+        this.interpreted = this.backend == Backend.GHCi && pickInterpreted();
+        if (this.mode != Mode.INLINE) {
+            this.shared = new SharedBindings();
+            // keep the values of shared bindings evaluated, instead of reverting them after every command
+            this.bind(":unset +r", ":unset +r");
+        } else {
+            this.shared = null;
         }
+
+        this.compiled = this.mode == Mode.COMPILED ? new CompiledModule(this::loadBuild, this::logError) : null;
     }
 
     /**
@@ -99,48 +289,477 @@ public final class GhciSession extends AbstractExecutionThreadService {
      * @param func The actual function.
      */
     public ListenableFuture<String> push(final String name, final Expression func) {
-        String let = String.format("let %s = %s", name, func.toHaskell());
-        return pullRaw(let);
+        return this.bind(name, String.format("let %s = %s", name, func.toHaskell()));
+    }
+
+    /**
+     * Defines a shared binding in every ghci instance, and in the compiled module if there is one.
+     * @param name The shared name.
+     * @param declaration The type signature and definition of the name.
+     */
+    private void share(final String name, final String declaration) {
+        this.bind(name, letOf(declaration));
+        if (this.compiled != null) {
+            this.compiled.define(name, declaration);
+        }
+    }
+
+    /**
+     * Drops a shared binding that is no longer used, so the evaluators can free its value.
+     * @param name The shared name.
+     */
+    private void unshare(final String name) {
+        if (this.compiled != null) {
+            this.compiled.remove(name);
+        }
+        this.bind(name, "let " + name + " = ()", true);
+    }
+
+    /** @return the ghci command that defines a declaration as a let binding. */
+    private static String letOf(String declaration) {
+        return "let {" + declaration + "}";
+    }
+
+    /**
+     * Makes a newly compiled version of the module available, every worker loads it before its next request.
+     * @param compiledBuild The compiled version.
+     */
+    private void loadBuild(CompiledModule.Build compiledBuild) {
+        synchronized (this.bindings) {
+            this.build = compiledBuild;
+        }
+    }
+
+    /**
+     * Defines something in every ghci instance, replacing an earlier definition of the same name.
+     * @param name The name of what is defined.
+     * @param cmd The ghci command that defines it.
+     */
+    private ListenableFuture<String> bind(final String name, final String cmd) {
+        return this.bind(name, cmd, false);
+    }
+
+    /**
+     * Defines something in every ghci instance, replacing an earlier definition of the same name.
+     * @param name The name of what is defined.
+     * @param cmd The ghci command that defines it.
+     * @param unbinding Whether the command only shadows the earlier definition, to let go of its value.
+     */
+    private ListenableFuture<String> bind(final String name, final String cmd, final boolean unbinding) {
+        // bindings are cheap, and everything after them waits for them anyway
+        Request request = new Request(cmd, SettableFuture.create(), true, Priority.INTERACTIVE);
+        request.unbinding = unbinding;
+
+        Request shadowed;
+        synchronized (this.bindings) {
+            request.seq = ++this.bindingSeq;
+            // an older binding of the same name gets shadowed anyway, so it does not need replaying
+            shadowed = this.bindings.remove(name);
+            this.bindings.put(name, request);
+        }
+
+        if (shadowed != null) {
+            // a shadowed binding might never be evaluated, so it gets the result of its replacement
+            Futures.addCallback(request.future, new FutureCallback<String>() {
+                public void onSuccess(String s)    { shadowed.future.set(s); }
+                public void onFailure(Throwable t) { shadowed.future.setException(t); }
+            });
+        }
+
+        // wake up a worker so the binding gets evaluated even if nothing else is requested
+        return this.enqueue(request);
     }
 
     /**
      * Returns the result of evaluating a Haskell expression.
+     * Expressions are pure and self-contained, so the results are cached and reused for identical expressions.
      * @param expr The expression to evaluate.
      * @return The result of the evaluation.
      */
     public ListenableFuture<String> pull(final Expression expr) {
-        return pullRaw(expr.toHaskell());
+        return this.pull(Priority.DISPLAY, null, expr);
+    }
+
+    /**
+     * Returns the result of evaluating a Haskell expression, superseding the previous request of the requester.
+     * The result of a superseded request is cancelled, so stale results never reach the requester.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param expr The expression to evaluate.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pull(final Object requester, final Expression expr) {
+        return this.pull(Priority.DISPLAY, requester, expr);
+    }
+
+    /**
+     * Returns the result of evaluating a Haskell expression, superseding the previous request of the requester.
+     * @param priority The urgency of the request.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param expr The expression to evaluate.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pull(final Priority priority, final Object requester, final Expression expr) {
+        Optional<String> local = this.interpreted ? Interpreter.show(expr) : Optional.empty();
+        if (local.isPresent()) {
+            this.supersede(requester, null);
+            return Futures.immediateFuture(local.get());
+        }
+
+        // in the shared mode the key is the rewritten code, of which the shared names tell the definitions they stand for
+        String haskell = this.shared == null ? expr.toHaskell() : this.shared.rewrite(requester, expr, this::share, this::unshare);
+        String key = this.backend.name() + ':' + haskell;
+
+        String cached = this.results.getIfPresent(key);
+        if (cached != null) {
+            this.supersede(requester, null);
+            return Futures.immediateFuture(cached);
+        }
+
+        return this.claim(requester, this.submit(requester, haskell, key, false, true, priority));
+    }
+
+    /**
+     * Evaluates a function from Double to Double at several points in the JVM, if the interpreter can.
+     * @param function The function to evaluate.
+     * @param xs The points to evaluate the function at.
+     * @return The function values at all points, or nothing if the function needs to be evaluated by ghci.
+     */
+    public Optional<double[]> sampleLocally(final Expression function, final double[] xs) {
+        return this.interpreted ? Interpreter.sample(function, xs) : Optional.empty();
+    }
+
+    /**
+     * Returns the results of evaluating several Haskell expressions, in as few round trips to ghci as possible.
+     * @param priority The urgency of the requests.
+     * @param exprs The expressions to evaluate.
+     * @return The result of every evaluation, in order.
+     */
+    public List<ListenableFuture<String>> pullAll(final Priority priority, final List<? extends Expression> exprs) {
+        List<ListenableFuture<String>> results = new ArrayList<>(exprs.size());
+        for (Expression expr : exprs) {
+            results.add(this.pull(priority, null, expr));
+        }
+        return results;
     }
 
     /**
      * Returns the result of evaluating something in ghci.
-     * Should only be used for testing purposes or for a known valid Haskell expression. 
+     * Should only be used for testing purposes or for a known valid Haskell expression.
+     * The expression may have side effects, such as generating random values, so it is always evaluated on its own.
      * @param expr The string representation of the expression to evaluate.
      * @return The result of the evaluation.
      */
     public ListenableFuture<String> pullRaw(final String expr) {
-        SettableFuture<String> result = SettableFuture.create();
-        AbstractMap.SimpleEntry<String, SettableFuture<String>> entry = new AbstractMap.SimpleEntry<>(expr, result);
+        return this.pullRaw(Priority.DISPLAY, null, expr);
+    }
 
-        try {
-            queue.put(entry);
-        } catch (InterruptedException e) {
-            result.setException(e);
+    /**
+     * Returns the result of evaluating something in ghci, superseding the previous request of the requester.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param expr The string representation of the expression to evaluate.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullRaw(final Object requester, final String expr) {
+        return this.pullRaw(Priority.DISPLAY, requester, expr);
+    }
+
+    /**
+     * Returns the result of evaluating something in ghci, superseding the previous request of the requester.
+     * @param priority The urgency of the request.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param expr The string representation of the expression to evaluate.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullRaw(final Priority priority, final Object requester, final String expr) {
+        return this.claim(requester, this.submit(requester, expr, null, false, false, priority));
+    }
+
+    /**
+     * Returns the output of evaluating something in ghci, passing on the output while it is being computed.
+     * Superseding the request also stops the stream. The streams of a requester are evaluated by the same
+     * ghci instance, so a stream may use the names bound by an earlier one.
+     * @param requester The object the output is for, or null for a plain request.
+     * @param expr The string representation of the expression to evaluate, which writes its output.
+     * @param progress Receives the chunks of output as they arrive, on a ghci thread.
+     * @return The whole output.
+     */
+    public ListenableFuture<String> pullStream(final Object requester, final String expr, final Consumer<String> progress) {
+        // every stream has its own listener, so it is never shared with an identical request
+        Request request = new Request(expr, SettableFuture.create(), false, Priority.DISPLAY);
+        request.progress = progress;
+        request.requester = requester;
+        request.pin = this.pin(requester);
+        this.enqueue(request);
+        return this.claim(requester, request);
+    }
+
+    /**
+     * Returns the numbers in a list, which are sent back compactly instead of as a shown list.
+     * @param priority The urgency of the request.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param expr The Haskell code of a list of Doubles.
+     * @return The numbers in the list.
+     */
+    public ListenableFuture<double[]> pullNumbers(final Priority priority, final Object requester, final String expr) {
+        Request request = this.submit(requester, "viskellNumbers (" + expr + ")", null, true, true, priority);
+        return Futures.transform(this.claim(requester, request),
+                (AsyncFunction<String, double[]>) response -> Futures.immediateFuture(singleFrame(Frame.parseAll(response)).getNumbers()));
+    }
+
+    /**
+     * @param frames The frames of a response.
+     * @return The only frame.
+     * @throws HaskellException when there is not exactly one frame.
+     */
+    private static Frame singleFrame(List<Frame> frames) throws HaskellException {
+        if (frames.size() != 1) {
+            throw new HaskellException("Expected a single frame, got " + frames.size());
+        }
+        return frames.get(0);
+    }
+
+    /**
+     * Returns the frames written by a command, such as a sequence of viskellItem or viskellBrief calls.
+     * The commands of a requester are evaluated by the same ghci instance, so a command may use the names
+     * bound by an earlier one.
+     * @param priority The urgency of the request.
+     * @param requester The object the result is for, or null for a plain request.
+     * @param cmd The Haskell code of an IO action that writes frames, or a statement binding the result of one.
+     * @return The frames, in order.
+     */
+    public ListenableFuture<List<Frame>> pullFrames(final Priority priority, final Object requester, final String cmd) {
+        Request request;
+        if (requester == null) {
+            request = this.submit(null, cmd, null, true, false, priority);
+        } else {
+            // the names used by the command might only exist in one evaluator, so it is never shared with an identical request
+            request = new Request(cmd, SettableFuture.create(), false, priority);
+            request.requester = requester;
+            request.framed = true;
+            request.pin = this.pin(requester);
+            this.enqueue(request);
+        }
+        return Futures.transform(this.claim(requester, request),
+                (AsyncFunction<String, List<Frame>>) response -> Futures.immediateFuture(Frame.parseAll(response)));
+    }
+
+    /**
+     * Withdraws the latest request of a requester, for example because it no longer needs a result.
+     * @param requester The object that made the request.
+     */
+    public void withdraw(final Object requester) {
+        this.supersede(requester, null);
+    }
+
+    /**
+     * Finds the worker that keeps the names bound for a requester, picking one if there is none yet.
+     * @param requester The object the requests are for, or null.
+     * @return The pin of the requester, or null if the requests can go to any worker.
+     */
+    private Pin pin(final Object requester) {
+        if (requester == null) {
+            return null;
+        }
+
+        synchronized (this.pins) {
+            Pin pin = this.pins.get(requester);
+            if (pin == null) {
+                Worker worker;
+                synchronized (this.workers) {
+                    if (this.workers.isEmpty()) {
+                        return null;
+                    }
+                    worker = this.workers.get(this.pinCount++ % this.workers.size());
+                }
+                pin = new Pin(worker, worker.epoch);
+                this.pins.put(requester, pin);
+            }
+            return pin;
+        }
+    }
+
+    /**
+     * Submits an expression for evaluation, unless it is pure and an identical one is waiting already.
+     * A request with a cache key only joins one with the same key, as the same code might mean something else
+     * once the shared bindings it uses are defined again.
+     * @param requester The object the result is for, or null.
+     * @param expr The string representation of the expression to evaluate.
+     * @param cacheKey The key to cache the result under, or null.
+     * @param framed Whether the expression writes its result as frames, which are not checked for errors.
+     * @param pure Whether the expression has no side effects, so identical requests can share a single evaluation.
+     * @param priority The urgency of the request.
+     * @return The request that will evaluate the expression.
+     */
+    private Request submit(final Object requester, final String expr, final String cacheKey, final boolean framed,
+            final boolean pure, final Priority priority) {
+        Request request = new Request(expr, SettableFuture.create(), false, priority);
+        request.requester = requester;
+        request.cacheKey = cacheKey;
+        request.framed = framed;
+        if (!pure) {
+            // every evaluation might give something else
+            this.enqueue(request);
+            return request;
+        }
+
+        Request identical = this.waiting.putIfAbsent(request.waitingKey(), request);
+        if (identical != null) {
+            if (identical.framed == framed && Objects.equals(identical.cacheKey, cacheKey) && identical.join()) {
+                // the shared request is as urgent as its most urgent requester
+                if (this.queue.promote(identical, priority)) {
+                    identical.priority = priority;
+                }
+                return identical;
+            }
+
+            // everybody lost interest in the identical request, so it is going to be skipped
+            this.waiting.replace(request.waitingKey(), identical, request);
+        }
+
+        this.enqueue(request);
+        return request;
+    }
+
+    /**
+     * Hands out the result of a request, as the latest request of the requester.
+     * @param requester The object the result is for, or null.
+     * @param request The request that computes the result.
+     * @return The result for the requester, cancelled if it gets superseded.
+     */
+    private ListenableFuture<String> claim(final Object requester, final Request request) {
+        if (requester == null) {
+            return request.future;
+        }
+        if (request.requester == null) {
+            request.requester = requester;
         }
 
+        // a separate future per requester, so cancelling it doesn't affect others sharing the request
+        SettableFuture<String> result = SettableFuture.create();
+        Futures.addCallback(request.future, new FutureCallback<String>() {
+            public void onSuccess(String s)    { result.set(s); }
+            public void onFailure(Throwable t) { result.setException(t); }
+        });
+
+        this.supersede(requester, new Claim(request, result));
         return result;
     }
-    
+
+    /**
+     * Replaces the latest request of a requester, cancelling the result of the previous one.
+     * @param requester The object that made the requests, or null.
+     * @param claim The new latest request, or null.
+     */
+    private void supersede(final Object requester, final Claim claim) {
+        if (requester == null) {
+            return;
+        }
+
+        Claim previous = claim == null ? this.latest.remove(requester) : this.latest.put(requester, claim);
+        if (previous != null && previous.result.cancel(false)) {
+            this.abandon(previous.request);
+        }
+    }
+
+    /**
+     * Withdraws interest in a request. Once nobody is interested, the request is
+     * cancelled, so it is skipped in the queue or interrupted if it is running.
+     * @param request The request nobody might need anymore.
+     */
+    private void abandon(final Request request) {
+        if (request.interest.decrementAndGet() > 0 || !request.future.cancel(false)) {
+            return;
+        }
+
+        this.waiting.remove(request.waitingKey(), request);
+        Evaluator evaluator = request.evaluator;
+        ListenableFuture<String> evaluation = request.evaluation;
+        if (evaluator != null && evaluation != null) {
+            evaluator.interrupt(evaluation);
+        }
+    }
+
+    /**
+     * Puts a request in the work queue, without waiting for room, so this is safe on the JavaFX thread.
+     * @param request The request to evaluate.
+     * @return The future result of the request, which fails if the queue is full and the request has to give way.
+     */
+    private ListenableFuture<String> enqueue(Request request) {
+        request.enqueuedAt = System.nanoTime();
+        if (request.binding) {
+            // later requests depend on the bindings, so they are never turned away
+            queue.putAlways(request, request.priority);
+        } else if (!queue.offer(request, request.priority) && !this.overflow(request)) {
+            this.waiting.remove(request.waitingKey(), request);
+            Metrics.get().rejected.increment();
+            request.future.setException(new HaskellException("ghci work queue is full"));
+            return request.future;
+        }
+
+        Metrics.get().requests.increment();
+        return request.future;
+    }
+
+    /**
+     * Makes room for a request in the full work queue, as the overflow policy says.
+     * @param request The request that did not fit.
+     * @return whether the request was put in the queue.
+     */
+    private boolean overflow(Request request) {
+        if (!this.saturated) {
+            this.saturated = true;
+            Metrics.get().saturations.increment();
+            this.logError("ghci work queue is full, handling overflow with " + this.overflow);
+        }
+
+        // abandoned requests would be skipped anyway, so they are the first to go
+        if (!queue.removeIf(r -> r.future.isCancelled()).isEmpty() && queue.offer(request, request.priority)) {
+            return true;
+        }
+
+        switch (this.overflow) {
+            case DROP_OLDEST:
+                Request oldest = queue.removeOldest(r -> !r.binding && r.requester == request.requester && r.interest.get() <= 1);
+                if (oldest == null) {
+                    oldest = queue.removeOldest(r -> !r.binding && r.priority.compareTo(request.priority) >= 0 && r.interest.get() <= 1);
+                }
+                if (oldest == null) {
+                    return false;
+                }
+
+                this.waiting.remove(oldest.waitingKey(), oldest);
+                Metrics.get().dropped.increment();
+                oldest.future.setException(new HaskellException("dropped from the full ghci work queue"));
+                // the room was made for this request, even if another one took it in the meantime
+                queue.putAlways(request, request.priority);
+                return true;
+
+            case COALESCE:
+                Claim previous = request.requester == null ? null : this.latest.get(request.requester);
+                if (previous == null || previous.request.interest.get() > 1 || !queue.replace(previous.request, request)) {
+                    return false;
+                }
+
+                // the previous request is cancelled when the new one is claimed
+                queue.promote(request, request.priority);
+                Metrics.get().coalesced.increment();
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
     /**
      * Ask ghci for the type of an expression
      * @param expr The expression String to determine the type of.
-     * @param env The environment in which the type will be resolved 
+     * @param env The environment in which the type will be resolved
      * @return The parsed Haskell type
      * @throws HaskellException when  ghci encountered an error or the type could not be parsed.
      */
     public Type pullType(final String expr, Environment env) throws HaskellException {
         try {
-            String[] parts = this.pullRaw(":t " + expr).get().split(" :: ");
+            String[] parts = this.pullRaw(Priority.INTERACTIVE, null, ":t " + expr).get().split(" :: ");
 
             if (parts.length < 2) {
                 throw new HaskellException("ghci could not determine the type of:\n" + expr);
@@ -152,45 +771,95 @@ public final class GhciSession extends AbstractExecutionThreadService {
         }
     }
 
-    @Override
-    protected void triggerShutdown() {
-        queue.offer(new AbstractMap.SimpleEntry<>(POISON, null));
-    }
-
     /**
      * @return a String representation of this GhciSession.
      */
     public String toString() {
-        return "GhciSession{" + this.ghci + "}";
+        return "GhciSession{" + this.workers + "}";
     }
 
+    /**
+     * Starts all evaluators of the pool in parallel, and waits for the first to be ready.
+     * The first evaluator is the standby one, so usually it is ready at once.
+     * The others join the pool when they have started.
+     */
     @Override
-    public void shutDown() throws IOException {
+    protected void startUp() throws HaskellException {
+        this.threads = Executors.newFixedThreadPool(this.poolSize,
+                new ThreadFactoryBuilder().setNameFormat("ghci-worker-%d").setDaemon(true).build());
+
+        ListenableFuture<Evaluator> first = Standby.take(this.backend);
+        for (int i = 1; i < this.poolSize; i++) {
+            Futures.addCallback(Standby.start(this.backend), new FutureCallback<Evaluator>() {
+                public void onSuccess(Evaluator evaluator) { addWorker(evaluator); }
+                public void onFailure(Throwable t)         { logError(t.getMessage()); }
+            });
+        }
+
+        try {
+            Evaluator ghci = first.get();
+            this.addWorker(ghci);
+            Metrics.get().setQueue(this.queue::size, QUEUE_CAPACITY);
+            if (this.compiled != null) {
+                this.compiled.start(ghci);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            this.shutDown();
+            throw e.getCause() instanceof HaskellException ? (HaskellException) e.getCause() : new HaskellException(e);
+        }
+    }
+
+    /**
+     * Puts an evaluator to work, or closes it if the session is shutting down already.
+     * @param evaluator The started evaluator.
+     */
+    private void addWorker(Evaluator evaluator) {
+        synchronized (this.workers) {
+            if (!this.stopping) {
+                Worker worker = new Worker(evaluator);
+                this.workers.add(worker);
+                this.threads.execute(worker);
+                return;
+            }
+        }
+
         try {
-            this.ghci.close();
-            this.ghci = null;
+            evaluator.close();
         } catch (HaskellException e) {
             e.printStackTrace();
         }
     }
 
-    /** Build a new Evaluator, closing the old one if it exists. */
+    /** Stops all workers after their current request, then closes the evaluators. */
     @Override
-    public void startUp() throws HaskellException {
-        if (this.ghci != null) {
-            this.ghci.close();
+    protected void shutDown() {
+        synchronized (this.workers) {
+            this.stopping = true;
         }
+        Metrics.get().setQueue(() -> 0, QUEUE_CAPACITY);
 
-        this.ghci = evaluatorFactory(pickBackend());
-    }
+        if (this.compiled != null) {
+            this.compiled.close();
+        }
+
+        this.workers.forEach(w -> this.queue.putAlways(POISON, POISON.priority));
+        this.threads.shutdown();
 
-    /** Build the Evaluator that corresponds to the given Backend identifier. */
-    private Evaluator evaluatorFactory(Backend evaluator) throws HaskellException {
-        switch (evaluator) {
-            case GHCi:  return new GhciEvaluator();
-            case Clash: return new ClashEvaluator();
-            default:    return new GhciEvaluator();
+        try {
+            this.threads.awaitTermination(SHUTDOWN_GRACE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Worker worker : this.workers) {
+            try {
+                worker.ghci.close();
+            } catch (HaskellException e) {
+                e.printStackTrace();
+            }
         }
+
+        this.workers.clear();
     }
 
     /** @return the Backend in the preferences, or GHCi otherwise. */
@@ -205,12 +874,585 @@ public final class GhciSession extends AbstractExecutionThreadService {
         return Lists.newArrayList(EnumSet.allOf(Backend.class));
     }
 
+    /** @return the evaluation mode in the preferences, or INLINE otherwise. */
+    public static Mode pickMode() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        String name = prefs.get("ghciMode", Mode.INLINE.name());
+        return Mode.valueOf(name);
+    }
+
+    /** @return the evaluation modes to choose from, which are all but the experimental COMPILED mode. */
+    public static List<Mode> getModes() {
+        return Lists.newArrayList(EnumSet.of(Mode.INLINE, Mode.SHARED));
+    }
+
+    /** @return the number of evaluator processes in the preferences, or a default based on the available processors. */
+    public static int pickPoolSize() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getInt("ghciPool", Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    /**
+     * @return the number of requests that may be in flight on a single evaluator in the preferences, by default two.
+     * With two, the next request is already waiting in ghci while the previous one is being evaluated.
+     */
+    public static int pickPipelineDepth() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getInt("ghciPipeline", 2);
+    }
+
+    /** @return whether simple expressions are evaluated in the JVM according to the preferences, by default true. */
+    public static boolean pickInterpreted() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getBoolean("ghciInterpret", true);
+    }
+
+    /** @return the overflow policy in the preferences, or DROP_OLDEST otherwise. */
+    public static Overflow pickOverflow() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        String name = prefs.get("ghciOverflow", Overflow.DROP_OLDEST.name());
+        return Overflow.valueOf(name);
+    }
+
+    /** @return the maximum number of bytes of a single response from ghci in the preferences, by default 8 MiB. */
+    public static int pickOutputLimit() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getInt("ghciOutputLimit", 8 << 20);
+    }
+
+    /** @return whether the work queue filled up recently, so requests may have to give way. */
+    public boolean isSaturated() {
+        return this.saturated;
+    }
+
+    /** @return the number of evaluator processes in this session. */
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
     public HaskellCatalog getCatalog() {
         return catalog;
     }
 
     /** @return an immutable list of the last LOG_SIZE runtime errors. */
     public List<String> getErrors() {
-        return ImmutableList.copyOf(errors);
+        synchronized (this.errors) {
+            return ImmutableList.copyOf(errors);
+        }
+    }
+
+    /** @param msg The error message to add to the log. */
+    private void logError(String msg) {
+        synchronized (this.errors) {
+            this.errors.add(msg);
+        }
+        Metrics.get().errors.increment();
+    }
+
+    /** A piece of work for ghci, with the future that receives its result. */
+    private static final class Request {
+        /** The Haskell code to send to ghci. */
+        private final String expr;
+
+        /** The future that receives the result. */
+        private final SettableFuture<String> future;
+
+        /** Whether this request is a let binding that needs to be replayed on every evaluator. */
+        private final boolean binding;
+
+        /** The sequence number of a binding request. */
+        private long seq;
+
+        /** Whether this binding only shadows a dropped one, which an evaluator that never had it can skip. */
+        private boolean unbinding;
+
+        /** The key to cache the result under, or null if the result is not cacheable. */
+        private String cacheKey;
+
+        /** The lane of the work queue this request goes in. */
+        private volatile Priority priority;
+
+        /** The number of requesters still interested in the result, when it drops to zero the request is cancelled. */
+        private final AtomicInteger interest;
+
+        /** The evaluator that evaluates this request, or null if it has not been started. */
+        private volatile Evaluator evaluator;
+
+        /** The evaluation of this request on the evaluator. */
+        private volatile ListenableFuture<String> evaluation;
+
+        /** The number of times this request was replayed. */
+        private int replays;
+
+        /** Whether this request needs to be evaluated on its own, because its batch failed as a whole. */
+        private volatile boolean solo;
+
+        /** Whether the expression writes its result as frames. */
+        private boolean framed;
+
+        /** Receives the output as it arrives, or null. */
+        private Consumer<String> progress;
+
+        /** When this request was put in the work queue, in nanoseconds. */
+        private volatile long enqueuedAt;
+
+        /** The first requester of the result, or null; tells where a request came from, and whose requests give way to it in a full queue. */
+        private volatile Object requester;
+
+        /** The worker that has to evaluate this request, as it may use names bound there before, or null for any worker. */
+        private Pin pin;
+
+        private Request(String expr, SettableFuture<String> future, boolean binding, Priority priority) {
+            this.expr = expr;
+            this.future = future;
+            this.binding = binding;
+            this.priority = priority;
+            this.interest = new AtomicInteger(1);
+        }
+
+        /** @return the key under which this request waits for identical requests to join it. */
+        private String waitingKey() {
+            return this.cacheKey != null ? this.cacheKey : this.expr;
+        }
+
+        /** @return whether this request can be evaluated in a batch, which requires a pure showable expression. */
+        private boolean isBatchable() {
+            return this.cacheKey != null && !this.solo;
+        }
+
+        /** @return whether another requester could share this request, which is not the case once it was abandoned. */
+        private boolean join() {
+            int count;
+            do {
+                count = this.interest.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!this.interest.compareAndSet(count, count + 1));
+
+            return true;
+        }
+    }
+
+    /** The latest request of a requester, with the result handed out to the requester. */
+    private static final class Claim {
+        /** The request that computes the result. */
+        private final Request request;
+
+        /** The future handed out to the requester. */
+        private final SettableFuture<String> result;
+
+        private Claim(Request request, SettableFuture<String> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    /** The worker that keeps the names bound for a requester, as long as it does not lose them. */
+    private static final class Pin {
+        /** The worker that evaluates all pinned requests of the requester. */
+        private final Worker worker;
+
+        /** The epoch of the worker when the requester was pinned to it. */
+        private final int epoch;
+
+        private Pin(Worker worker, int epoch) {
+            this.worker = worker;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * The failure of a request that uses names bound by earlier requests of its requester,
+     * which are gone because the evaluator that had them restarted or loaded a module.
+     */
+    public static final class StateLost extends HaskellException {
+        private static final long serialVersionUID = 1L;
+
+        private StateLost() {
+            super("The names bound by earlier requests are gone");
+        }
+    }
+
+    /** Takes requests from the shared queue and pipelines them to its own evaluator. */
+    private final class Worker implements Runnable {
+        /** The evaluator owned by this worker, replaced when it stops responding. */
+        private volatile Evaluator ghci;
+
+        /** The sequence number of the last binding evaluated by this worker. */
+        private long syncedSeq;
+
+        /** Permits for the requests that may be in flight on the evaluator at once. */
+        private final Semaphore slots;
+
+        /** The version of the compiled module loaded into the evaluator, zero if none. */
+        private int loadedVersion;
+
+        /** The declarations of the loaded module, which need no let binding. */
+        private Map<String, String> loadedDeclarations;
+
+        /** Whether loading the module failed, so all bindings need to be sent again. */
+        private volatile boolean loadFailed;
+
+        /** Whether the evaluator has no let bindings at all, as after starting or loading a module. */
+        private boolean blank;
+
+        /** Counts the times the evaluator lost all its bindings, after which pinned requesters have to start over. */
+        private volatile int epoch;
+
+        private Worker(Evaluator ghci) {
+            this.ghci = ghci;
+            this.syncedSeq = 0;
+            this.blank = true;
+            this.slots = new Semaphore(pipelineDepth);
+            this.loadedDeclarations = ImmutableMap.of();
+            this.ghci.startPipeline();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    // only take new work if the pipeline has room for it
+                    this.slots.acquire();
+                    Request request = queue.take(r -> r.pin == null || r.pin.worker == this);
+
+                    if (request == POISON) {
+                        // Something wants us to quit - do so, after the requests in flight are done.
+                        this.slots.acquire(pipelineDepth - 1);
+                        break;
+                    }
+
+                    Metrics.get().waitTime.observe(System.nanoTime() - request.enqueuedAt);
+                    if (saturated && queue.size() <= QUEUE_CAPACITY / 2) {
+                        saturated = false;
+                    }
+
+                    // from now on an identical request needs its own evaluation, as bindings might change in between
+                    if (!request.binding) {
+                        waiting.remove(request.waitingKey(), request);
+                    }
+
+                    if (request.future.isCancelled()) {
+                        // superseded while waiting in the queue
+                        this.slots.release();
+                        continue;
+                    }
+
+                    if (!this.ghci.isAlive()) {
+                        this.respawn();
+                    }
+
+                    // bindings are evaluated in order before anything that might depend on them
+                    this.syncBindings();
+
+                    if (request.pin != null && request.pin.epoch != this.epoch) {
+                        // the names bound by earlier requests went with the other bindings
+                        pins.remove(request.requester, request.pin);
+                        request.future.setException(new StateLost());
+                        this.slots.release();
+                        continue;
+                    }
+
+                    List<Request> batch = request.isBatchable() ? this.collectBatch(request) : ImmutableList.of();
+                    if (request.binding) {
+                        this.slots.release();
+                    } else if (batch.size() > 1) {
+                        this.evaluateBatch(batch).addListener(this.slots::release, MoreExecutors.directExecutor());
+                    } else {
+                        this.evaluate(request).addListener(this.slots::release, MoreExecutors.directExecutor());
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop working
+            }
+        }
+
+        /**
+         * Sends all bindings this worker has not seen yet to its evaluator.
+         * Loads a newer compiled module first, after which all bindings are sent again,
+         * except the ones that are compiled into the module.
+         */
+        private void syncBindings() {
+            CompiledModule.Build load = null;
+            List<Request> pending = new ArrayList<>();
+            List<Worker> pool;
+            synchronized (workers) {
+                pool = new ArrayList<>(workers);
+            }
+
+            synchronized (bindings) {
+                if (this.loadFailed) {
+                    // loading clears all let bindings, even when it fails
+                    this.loadFailed = false;
+                    this.loadedDeclarations = ImmutableMap.of();
+                    this.syncedSeq = 0;
+                    this.blank = true;
+                    this.epoch++;
+                }
+
+                if (build != null && build.version > this.loadedVersion) {
+                    load = build;
+                    this.loadedVersion = build.version;
+                    this.loadedDeclarations = build.declarations;
+                    this.syncedSeq = 0;
+                    this.blank = true;
+                    this.epoch++;
+                }
+
+                for (Map.Entry<String, Request> entry : bindings.entrySet()) {
+                    Request binding = entry.getValue();
+                    String declaration = this.loadedDeclarations.get(entry.getKey());
+                    if (declaration != null && binding.expr.equals(letOf(declaration))) {
+                        // already defined by the module
+                        binding.future.set("");
+                    } else if (binding.unbinding && this.blank) {
+                        // nothing to let go of
+                        binding.future.set("");
+                    } else if (binding.seq > this.syncedSeq) {
+                        pending.add(binding);
+                    }
+                }
+                this.syncedSeq = bindingSeq;
+                this.blank = false;
+
+                // once every evaluator is past a dropped binding, only evaluators that never had it are left
+                long oldest = pool.stream().mapToLong(worker -> worker.syncedSeq).min().orElse(0);
+                bindings.values().removeIf(binding -> binding.unbinding && binding.seq <= oldest);
+            }
+
+            if (load != null) {
+                this.load(load);
+            }
+
+            // the first worker to evaluate a binding reports the result
+            pending.forEach(this::evaluate);
+        }
+
+        /** Loads a compiled version of the module into the evaluator. */
+        private void load(CompiledModule.Build load) {
+            Futures.addCallback(this.ghci.loadAsync(load.source), new FutureCallback<String>() {
+                public void onSuccess(String s) {
+                    if (!s.contains("Ok,")) {
+                        this.onFailure(new HaskellException(s));
+                    }
+                }
+
+                public void onFailure(Throwable t) {
+                    // keep using the interpreted bindings
+                    loadFailed = true;
+                    logError(t.getMessage());
+                }
+            });
+        }
+
+        /**
+         * Replaces the evaluator after it was killed or failed, by the standby one if possible.
+         * All bindings are sent again to the new one.
+         */
+        private void respawn() throws InterruptedException {
+            try {
+                this.ghci.close();
+            } catch (HaskellException e) {
+                // it is gone anyway
+            }
+
+            try {
+                Evaluator fresh = Standby.take(backend).get();
+                fresh.startPipeline();
+                this.ghci = fresh;
+                synchronized (bindings) {
+                    this.syncedSeq = 0;
+                    this.loadedVersion = 0;
+                    this.loadedDeclarations = ImmutableMap.of();
+                    this.blank = true;
+                    this.epoch++;
+                }
+                Metrics.get().restarts.increment();
+                logError("ghci was restarted after it stopped responding");
+            } catch (ExecutionException e) {
+                // keep the failed evaluator, so requests fail until a later attempt succeeds
+                logError(e.getCause().getMessage());
+            }
+        }
+
+        /**
+         * Sends a single request to the evaluator, the result is set in the future of the request.
+         * @return the future of the evaluation on this worker.
+         */
+        private ListenableFuture<String> evaluate(Request request) {
+            Evaluator evaluator = this.ghci;
+            long timeout = request.binding ? 0 : request.priority.getTimeout();
+            Span span = Trace.ghciRequest(request.expr, request.priority.name(), request.requester, System.nanoTime() - request.enqueuedAt);
+            ListenableFuture<String> result;
+            if (request.framed) {
+                result = evaluator.evalFramedAsync(request.expr, timeout);
+            } else if (request.cacheKey != null) {
+                // a value on its own is written as a frame just like in a batch, so its output is not scanned for errors
+                result = evaluator.evalFramedAsync(Evaluator.itemsCommand(ImmutableList.of(request.expr)), timeout);
+            } else if (request.progress != null) {
+                result = evaluator.evalStreamingAsync(request.expr, timeout, request.progress);
+            } else {
+                result = evaluator.evalAsync(request.expr, timeout);
+            }
+            result.addListener(span::commit, MoreExecutors.directExecutor());
+            request.evaluator = evaluator;
+            request.evaluation = result;
+            if (request.future.isCancelled()) {
+                // superseded in the meantime
+                evaluator.interrupt(result);
+            }
+
+            Futures.addCallback(result, new FutureCallback<String>() {
+                public void onSuccess(String s) {
+                    String result;
+                    try {
+                        if (request.framed) {
+                            result = evaluator.checkFramed(s);
+                        } else if (request.cacheKey != null) {
+                            Frame frame = singleFrame(evaluator.parseFrames(s));
+                            if (!frame.isValue()) {
+                                throw new HaskellException(frame.getPayload());
+                            }
+                            result = frame.getPayload();
+                        } else {
+                            result = s.trim();
+                        }
+                    } catch (HaskellException e) {
+                        this.onFailure(e);
+                        return;
+                    }
+
+                    if (request.future.isDone()) {
+                        // nobody is interested anymore, so the result does not go in the cache either
+                        return;
+                    }
+                    if (request.cacheKey != null) {
+                        // cache before completing, so that anything triggered by the result finds it
+                        results.put(request.cacheKey, result);
+                    }
+                    request.future.set(result);
+                }
+
+                public void onFailure(Throwable t) {
+                    // lost to the interrupt of another request, or to an evaluator that was killed
+                    boolean lost = t instanceof Evaluator.Interrupted || !evaluator.isAlive();
+                    if (lost && !request.future.isDone() && request.replays++ < MAX_REPLAYS) {
+                        replay(request);
+                    } else if (request.future.setException(t)) {
+                        logError(t.getMessage());
+                    }
+                }
+            });
+
+            return result;
+        }
+
+        /**
+         * Takes the other batchable requests waiting in the same lane, to evaluate them together.
+         * @param request The request that was just taken.
+         * @return The requests to evaluate in a single command, starting with the given one.
+         */
+        private List<Request> collectBatch(Request request) {
+            List<Request> batch = new ArrayList<>();
+            batch.add(request);
+            for (Request other : queue.drain(request.priority, Request::isBatchable, MAX_BATCH - 1)) {
+                waiting.remove(other.waitingKey(), other);
+                Metrics.get().waitTime.observe(System.nanoTime() - other.enqueuedAt);
+                if (!other.future.isCancelled()) {
+                    batch.add(other);
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * Sends several requests to the evaluator in a single command, each result is set in the future of its request
+         * as soon as its frame arrives. Every request gets the time limit of its lane, so the command as a whole may
+         * take as long as those together. If the command fails, the requests without a result yet are evaluated one
+         * by one instead.
+         * @return the future of the evaluation on this worker.
+         */
+        private ListenableFuture<List<Frame>> evaluateBatch(List<Request> batch) {
+            Evaluator evaluator = this.ghci;
+            List<String> exprs = new ArrayList<>(batch.size());
+            batch.forEach(request -> exprs.add(request.expr));
+
+            // requests in a batch are not interrupted when superseded, as that would fail the others too
+            long timeout = batch.get(0).priority.getTimeout() * batch.size();
+            Iterator<Request> arriving = batch.iterator();
+            ListenableFuture<List<Frame>> result = evaluator.evalBatchAsync(exprs, timeout, frame -> {
+                if (arriving.hasNext()) {
+                    complete(arriving.next(), frame);
+                }
+            });
+            long now = System.nanoTime();
+            for (Request request : batch) {
+                Span span = Trace.ghciRequest(request.expr, request.priority.name(), request.requester, now - request.enqueuedAt);
+                result.addListener(span::commit, MoreExecutors.directExecutor());
+            }
+            Futures.addCallback(result, new FutureCallback<List<Frame>>() {
+                public void onSuccess(List<Frame> frames) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!batch.get(i).future.isDone()) {
+                            complete(batch.get(i), frames.get(i));
+                        }
+                    }
+                }
+
+                public void onFailure(Throwable t) {
+                    // a compile error, time out or interrupt of the whole command, so try the rest separately
+                    for (Request request : batch) {
+                        if (!request.future.isDone()) {
+                            request.solo = true;
+                            replay(request);
+                        }
+                    }
+                }
+            });
+
+            return result;
+        }
+
+        /**
+         * Sets the result of a request from its frame in a batch.
+         * @param request The request.
+         * @param frame The frame with its value or exception.
+         */
+        private void complete(Request request, Frame frame) {
+            if (request.future.isDone()) {
+                // nobody is interested anymore, so the result does not go in the cache either
+                return;
+            } else if (frame.isValue()) {
+                // cache before completing, so that anything triggered by the result finds it
+                results.put(request.cacheKey, frame.getPayload());
+                request.future.set(frame.getPayload());
+            } else if (request.future.setException(new HaskellException(frame.getPayload()))) {
+                logError(frame.getPayload());
+            }
+        }
+
+        /**
+         * Evaluates a request again after it was lost to an interrupt.
+         * @param request The request that did not get its result.
+         */
+        private void replay(Request request) {
+            if (request.binding) {
+                // not known whether ghci got the binding, so send all bindings again
+                synchronized (bindings) {
+                    this.syncedSeq = 0;
+                }
+            }
+
+            request.enqueuedAt = System.nanoTime();
+            if (!queue.offer(request, request.priority) && !request.binding) {
+                request.future.setException(new HaskellException("ghci work queue is full"));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.ghci.toString();
+        }
     }
 }
@@ -0,0 +1,345 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpServer;
+import nl.utwente.viskell.ui.Main;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.prefs.Preferences;
+
+/**
+ * Counts what happens between the application and ghci, for all sessions together.
+ *
+ * The metrics are available as an MXBean, and can be exported in the
+ * Prometheus text format to a file that is rewritten periodically, or served
+ * on a port of the loopback interface. Which of those is done is decided by
+ * the preferences.
+ *
+ * Safe to use from multiple threads.
+ */
+public final class Metrics implements MetricsMXBean {
+    /** The single instance. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** The name the metrics are registered under with JMX. */
+    private static final String OBJECT_NAME = "nl.utwente.viskell:type=GhciMetrics";
+
+    /** How often the metrics file is rewritten, in seconds. */
+    private static final int FILE_INTERVAL = 10;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder saturations = new LongAdder();
+    final LongAdder commands = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder interrupts = new LongAdder();
+    final LongAdder restarts = new LongAdder();
+    final LongAdder truncated = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+
+    /** The time requests wait in the work queue before they are sent to ghci. */
+    final Histogram waitTime = new Histogram();
+
+    /** The time between sending a command to ghci and receiving its response. */
+    final Histogram evalTime = new Histogram();
+
+    /** The number of requests waiting in the work queue of the current session. */
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    /** The maximum number of requests in the work queue of the current session. */
+    private volatile int queueCapacity = 1;
+
+    /** Whether exporting was started already. */
+    private boolean exporting;
+
+    private Metrics() {
+        // a single instance
+    }
+
+    /** @return the metrics of all sessions. */
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param depth Gives the number of requests in the work queue of the session that is currently in use.
+     * @param capacity The maximum number of requests in that work queue.
+     */
+    void setQueue(IntSupplier depth, int capacity) {
+        this.queueDepth = depth;
+        this.queueCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Registers the MXBean, and starts writing the metrics file and serving the
+     * metrics on the loopback port, if the preferences ask for that.
+     */
+    public synchronized void export() {
+        if (this.exporting) {
+            return;
+        }
+        this.exporting = true;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        String file = prefs.get("metricsFile", "");
+        if (!file.isEmpty()) {
+            ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("metrics-writer").setDaemon(true).build());
+            writer.scheduleWithFixedDelay(() -> this.writeTo(Paths.get(file)), 0, FILE_INTERVAL, TimeUnit.SECONDS);
+        }
+
+        int port = prefs.getInt("metricsPort", 0);
+        if (port > 0) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = this.getText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.setExecutor(Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("metrics-server").setDaemon(true).build()));
+                server.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it as a whole so readers never see half of it.
+     * @param file The file to write.
+     */
+    private void writeTo(Path file) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, "metrics", ".tmp");
+            Files.write(temp, this.getText().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queueDepth.getAsInt();
+    }
+
+    @Override
+    public double getQueueSaturation() {
+        return (double) this.getQueueDepth() / this.queueCapacity;
+    }
+
+    @Override
+    public long getRequests() {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+
+    @Override
+    public long getSaturations() {
+        return this.saturations.sum();
+    }
+
+    @Override
+    public long getCommands() {
+        return this.commands.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    @Override
+    public long getInterrupts() {
+        return this.interrupts.sum();
+    }
+
+    @Override
+    public long getRestarts() {
+        return this.restarts.sum();
+    }
+
+    @Override
+    public long getTruncatedResponses() {
+        return this.truncated.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.bytesReceived.sum();
+    }
+
+    @Override
+    public double getMeanWaitMillis() {
+        return this.waitTime.getMean() * 1000;
+    }
+
+    @Override
+    public double getMeanEvalMillis() {
+        return this.evalTime.getMean() * 1000;
+    }
+
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        gauge(text, "ghci_queue_depth", "Requests waiting in the work queue.", this.getQueueDepth());
+        gauge(text, "ghci_queue_saturation", "Fraction of the work queue capacity in use.", this.getQueueSaturation());
+        counter(text, "ghci_requests_total", "Requests put in a work queue.", this.getRequests());
+        counter(text, "ghci_rejected_total", "Requests turned away by a full work queue.", this.getRejected());
+        counter(text, "ghci_dropped_total", "Waiting requests dropped to make room in a full work queue.", this.getDropped());
+        counter(text, "ghci_coalesced_total", "Requests merged into a waiting request of the same requester in a full work queue.", this.getCoalesced());
+        counter(text, "ghci_saturations_total", "Times the work queue filled up.", this.getSaturations());
+        counter(text, "ghci_commands_total", "Commands sent to ghci.", this.getCommands());
+        counter(text, "ghci_errors_total", "Failed evaluations.", this.getErrors());
+        counter(text, "ghci_timeouts_total", "Evaluations that took longer than their time limit.", this.getTimeouts());
+        counter(text, "ghci_interrupts_total", "Interrupt signals sent to ghci.", this.getInterrupts());
+        counter(text, "ghci_restarts_total", "Ghci instances replaced after they stopped responding.", this.getRestarts());
+        counter(text, "ghci_truncated_total", "Responses cut off at the size limit.", this.getTruncatedResponses());
+        counter(text, "ghci_sent_bytes_total", "Bytes sent to ghci.", this.getBytesSent());
+        counter(text, "ghci_received_bytes_total", "Bytes received from ghci.", this.getBytesReceived());
+        this.waitTime.write(text, "ghci_wait_seconds", "Time requests waited in the work queue.");
+        this.evalTime.write(text, "ghci_eval_seconds", "Time ghci took to respond to a command.");
+        return text.toString();
+    }
+
+    /** Writes a counter in the Prometheus text format. */
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /** Writes a gauge in the Prometheus text format. */
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        gauge(text, name, help, Long.toString(value));
+    }
+
+    /** Writes a gauge in the Prometheus text format. */
+    private static void gauge(StringBuilder text, String name, String help, double value) {
+        gauge(text, name, help, String.format(Locale.US, "%.6f", value));
+    }
+
+    /** Writes a gauge in the Prometheus text format. */
+    private static void gauge(StringBuilder text, String name, String help, String value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /** A histogram of durations, with fixed buckets. */
+    static final class Histogram {
+        /** The upper bounds of the buckets, in seconds. */
+        private static final double[] BOUNDS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+        /** The number of observations per bucket, the last one for those above all bounds. */
+        private final LongAdder[] buckets;
+
+        /** The sum of all observations, in nanoseconds. */
+        private final LongAdder sum;
+
+        Histogram() {
+            this.buckets = new LongAdder[BOUNDS.length + 1];
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+            this.sum = new LongAdder();
+        }
+
+        /** @param nanos A duration, in nanoseconds. */
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < BOUNDS.length && seconds > BOUNDS[i]) {
+                i++;
+            }
+            this.buckets[i].increment();
+            this.sum.add(nanos);
+        }
+
+        /** @return the number of observations. */
+        long getCount() {
+            long count = 0;
+            for (LongAdder bucket : this.buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /** @return the mean of the observations in seconds, or zero if there are none. */
+        double getMean() {
+            long count = this.getCount();
+            return count == 0 ? 0 : this.sum.sum() / 1e9 / count;
+        }
+
+        /** Writes the histogram in the Prometheus text format, with cumulative buckets. */
+        void write(StringBuilder text, String name, String help) {
+            text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            text.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                cumulative += this.buckets[i].sum();
+                String bound = i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf";
+                text.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            text.append(name).append("_sum ").append(String.format(Locale.US, "%.6f", this.sum.sum() / 1e9)).append('\n');
+            text.append(name).append("_count ").append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package nl.utwente.viskell.ghcj;
+
+/**
+ * The evaluation metrics as they are shown over JMX.
+ */
+public interface MetricsMXBean {
+    /** @return the number of requests waiting in the work queue of the current session. */
+    int getQueueDepth();
+
+    /** @return the fraction of the capacity of the work queue of the current session in use. */
+    double getQueueSaturation();
+
+    /** @return the number of requests put in a work queue. */
+    long getRequests();
+
+    /** @return the number of requests turned away by a full work queue. */
+    long getRejected();
+
+    /** @return the number of waiting requests dropped to make room in a full work queue. */
+    long getDropped();
+
+    /** @return the number of requests merged into a waiting request of the same requester in a full work queue. */
+    long getCoalesced();
+
+    /** @return the number of times a work queue filled up. */
+    long getSaturations();
+
+    /** @return the number of commands sent to ghci. */
+    long getCommands();
+
+    /** @return the number of failed evaluations. */
+    long getErrors();
+
+    /** @return the number of evaluations that took longer than their time limit. */
+    long getTimeouts();
+
+    /** @return the number of interrupt signals sent to ghci. */
+    long getInterrupts();
+
+    /** @return the number of ghci instances that were replaced after they stopped responding. */
+    long getRestarts();
+
+    /** @return the number of responses that were cut off at the size limit. */
+    long getTruncatedResponses();
+
+    /** @return the number of bytes sent to ghci. */
+    long getBytesSent();
+
+    /** @return the number of bytes received from ghci. */
+    long getBytesReceived();
+
+    /** @return the mean time requests waited in the work queue, in milliseconds. */
+    double getMeanWaitMillis();
+
+    /** @return the mean time ghci took to respond to a command, in milliseconds. */
+    double getMeanEvalMillis();
+
+    /** @return all metrics in the Prometheus text format. */
+    String getText();
+}
@@ -0,0 +1,305 @@
+package nl.utwente.viskell.ghcj;
+
+import nl.utwente.viskell.ghcj.GhciSession.Priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A bounded queue with a separate lane for every priority. Adding never
+ * waits, taking waits until there is an element.
+ *
+ * Elements are taken from the most urgent lane that has any, so latency
+ * sensitive work overtakes bulk work. To keep the less urgent lanes moving,
+ * a lane that was passed over STARVATION_LIMIT times in a row gets the next
+ * turn. Within a lane elements are taken in order, but a taker may skip the
+ * elements it does not accept.
+ *
+ * @param <E> The type of the queued elements.
+ */
+final class RequestQueue<E> {
+    /** The number of times in a row a waiting lane may be passed over by a more urgent lane. */
+    static final int STARVATION_LIMIT = 8;
+
+    /** The maximum number of elements in all lanes together. */
+    private final int capacity;
+
+    /** The lanes, indexed by the ordinal of their priority. */
+    private final ArrayDeque<E>[] lanes;
+
+    /** For every lane, the number of times in a row it was passed over while it had elements. */
+    private final int[] passedOver;
+
+    /** The number of elements in all lanes together. */
+    private int size;
+
+    /** Guards all state. */
+    private final ReentrantLock lock;
+
+    /** Signalled when an element is added. */
+    private final Condition notEmpty;
+
+    /**
+     * @param capacity The maximum number of elements in the queue.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    RequestQueue(int capacity) {
+        int count = Priority.values().length;
+        this.capacity = capacity;
+        this.lanes = new ArrayDeque[count];
+        for (int i = 0; i < count; i++) {
+            this.lanes[i] = new ArrayDeque<>();
+        }
+        this.passedOver = new int[count];
+        this.size = 0;
+        this.lock = new ReentrantLock();
+        this.notEmpty = this.lock.newCondition();
+    }
+
+    /**
+     * Adds an element if there is room for it.
+     * @param element The element to add.
+     * @param priority The lane to add it to.
+     * @return whether the element was added.
+     */
+    boolean offer(E element, Priority priority) {
+        this.lock.lock();
+        try {
+            if (this.size >= this.capacity) {
+                return false;
+            }
+            this.add(element, priority);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an element even if the queue is full, for elements that must not be lost or delayed.
+     * @param element The element to add.
+     * @param priority The lane to add it to.
+     */
+    void putAlways(E element, Priority priority) {
+        this.lock.lock();
+        try {
+            this.add(element, priority);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next element, waiting for one if the queue is empty.
+     * @return The element from the most urgent lane, unless a less urgent lane has waited too long.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    E take() throws InterruptedException {
+        return this.take(element -> true);
+    }
+
+    /**
+     * Takes the next element that the taker accepts, waiting for one if there is none.
+     * @param acceptable Which elements the taker may take, others are skipped and stay in place.
+     * @return The first acceptable element from the most urgent lane that has any, unless a less urgent lane has waited too long.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    E take(Predicate<? super E> acceptable) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (true) {
+                List<E> firsts = new ArrayList<>(this.lanes.length);
+                int chosen = -1;
+                for (int i = 0; i < this.lanes.length; i++) {
+                    E first = this.lanes[i].stream().filter(acceptable).findFirst().orElse(null);
+                    firsts.add(first);
+                    if (first != null) {
+                        if (chosen < 0 || this.passedOver[i] >= STARVATION_LIMIT) {
+                            chosen = i;
+                        }
+                        if (this.passedOver[i] >= STARVATION_LIMIT) {
+                            break;
+                        }
+                    }
+                }
+
+                if (chosen < 0) {
+                    this.notEmpty.await();
+                    continue;
+                }
+
+                // only the waiting lanes that are less urgent than the chosen one can starve
+                for (int i = chosen + 1; i < firsts.size(); i++) {
+                    if (firsts.get(i) != null) {
+                        this.passedOver[i]++;
+                    }
+                }
+                this.passedOver[chosen] = 0;
+
+                // the same element may be in the queue more than once, only its first occurrence is taken
+                E element = firsts.get(chosen);
+                Iterator<E> lane = this.lanes[chosen].iterator();
+                while (lane.next() != element) {
+                    // skipped
+                }
+                lane.remove();
+                this.size--;
+                return element;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes more elements from a lane without waiting, to handle them together with one that was just taken.
+     * @param priority The lane to take from.
+     * @param filter Which elements to take, others are skipped and stay in place.
+     * @param max The maximum number of elements to take.
+     * @return The taken elements in order, possibly none.
+     */
+    List<E> drain(Priority priority, Predicate<? super E> filter, int max) {
+        List<E> drained = new ArrayList<>();
+        this.lock.lock();
+        try {
+            Iterator<E> lane = this.lanes[priority.ordinal()].iterator();
+            while (drained.size() < max && lane.hasNext()) {
+                E element = lane.next();
+                if (filter.test(element)) {
+                    lane.remove();
+                    drained.add(element);
+                }
+            }
+
+            this.size -= drained.size();
+            return drained;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a waiting element to a more urgent lane.
+     * @param element The element to move, compared by identity.
+     * @param priority The lane it should be in at least.
+     * @return whether the element was found in a less urgent lane and moved.
+     */
+    boolean promote(E element, Priority priority) {
+        this.lock.lock();
+        try {
+            for (int i = priority.ordinal() + 1; i < this.lanes.length; i++) {
+                if (this.lanes[i].removeIf(e -> e == element)) {
+                    this.lanes[priority.ordinal()].add(element);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all waiting elements that match a filter.
+     * @param filter Which elements to remove.
+     * @return The removed elements.
+     */
+    List<E> removeIf(Predicate<? super E> filter) {
+        List<E> removed = new ArrayList<>();
+        this.lock.lock();
+        try {
+            for (ArrayDeque<E> lane : this.lanes) {
+                Iterator<E> elements = lane.iterator();
+                while (elements.hasNext()) {
+                    E element = elements.next();
+                    if (filter.test(element)) {
+                        elements.remove();
+                        removed.add(element);
+                    }
+                }
+            }
+
+            this.size -= removed.size();
+            return removed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the waiting element that would be taken last of those that match a filter:
+     * the oldest one in the least urgent lane that has any.
+     * @param filter Which elements may be removed.
+     * @return The removed element, or null if none matched.
+     */
+    E removeOldest(Predicate<? super E> filter) {
+        this.lock.lock();
+        try {
+            for (int i = this.lanes.length - 1; i >= 0; i--) {
+                Iterator<E> elements = this.lanes[i].iterator();
+                while (elements.hasNext()) {
+                    E element = elements.next();
+                    if (filter.test(element)) {
+                        elements.remove();
+                        this.size--;
+                        return element;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts an element in the place of a waiting one, in the same lane and position.
+     * @param element The waiting element, compared by identity.
+     * @param replacement The element taking its place.
+     * @return whether the element was waiting and is replaced.
+     */
+    boolean replace(E element, E replacement) {
+        this.lock.lock();
+        try {
+            for (ArrayDeque<E> lane : this.lanes) {
+                if (lane.stream().anyMatch(e -> e == element)) {
+                    List<E> elements = new ArrayList<>(lane);
+                    lane.clear();
+                    elements.forEach(e -> lane.add(e == element ? replacement : e));
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the maximum number of elements, which only putAlways may exceed. */
+    int capacity() {
+        return this.capacity;
+    }
+
+    /** @return the number of waiting elements. */
+    int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Adds an element, with the lock held and room available. */
+    private void add(E element, Priority priority) {
+        this.lanes[priority.ordinal()].add(element);
+        this.size++;
+        // a taker may not accept the element, so all of them get to look at it
+        this.notEmpty.signalAll();
+    }
+}
@@ -0,0 +1,206 @@
+package nl.utwente.viskell.ghcj;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads sentinel terminated responses from a channel.
+ *
+ * Input is read in large blocks into a ByteBuffer, which is scanned for the
+ * sentinel byte. The bytes of a response are collected and only decoded once
+ * the whole response has arrived, so UTF-8 characters that are split over two
+ * blocks are decoded correctly.
+ *
+ * The part of a response that has arrived so far can be passed on while the
+ * rest is still on its way. Those chunks end at a character boundary.
+ *
+ * A response can be limited in size. Once a response reaches the limit, the
+ * rest of it is read and discarded, and the response ends with a marker.
+ *
+ * Not to be used from multiple threads.
+ */
+final class SentinelReader {
+    /** The default size of the read buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** The largest response buffer that is kept around for the next response. */
+    private static final int RETAINED_SIZE = 1 << 20;
+
+    /** Marks the end of a response that was cut off at the limit. */
+    static final String TRUNCATED = "... (output truncated)";
+
+    /** The channel to read from. */
+    private final ReadableByteChannel channel;
+
+    /** The byte that terminates every response. */
+    private final byte sentinel;
+
+    /** Read buffer, kept in draining mode between calls so left over input is not lost. */
+    private final ByteBuffer buffer;
+
+    /** The bytes of the response that is being read. */
+    private byte[] response;
+
+    /** The number of used bytes in response. */
+    private int length;
+
+    /** The number of bytes of the response that were passed on as progress. */
+    private int reported;
+
+    /** The maximum number of bytes kept of a response. */
+    private final int limit;
+
+    /** Whether the last response was cut off at the limit. */
+    private boolean truncated;
+
+    /**
+     * @param channel The channel to read from.
+     * @param sentinel The byte that terminates every response.
+     */
+    SentinelReader(ReadableByteChannel channel, byte sentinel) {
+        this(channel, sentinel, BUFFER_SIZE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param channel The channel to read from.
+     * @param sentinel The byte that terminates every response.
+     * @param bufferSize The size of the read buffer.
+     */
+    SentinelReader(ReadableByteChannel channel, byte sentinel, int bufferSize) {
+        this(channel, sentinel, bufferSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param channel The channel to read from.
+     * @param sentinel The byte that terminates every response.
+     * @param bufferSize The size of the read buffer.
+     * @param limit The maximum number of bytes kept of a response.
+     */
+    SentinelReader(ReadableByteChannel channel, byte sentinel, int bufferSize, int limit) {
+        this.channel = channel;
+        this.limit = limit;
+        this.sentinel = sentinel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+        this.response = new byte[bufferSize];
+        this.length = 0;
+    }
+
+    /**
+     * Reads until the next sentinel.
+     * @return The decoded response, without the sentinel.
+     * @throws IOException when reading fails or the channel ends before the sentinel.
+     */
+    String readResponse() throws IOException {
+        return this.readResponse(null);
+    }
+
+    /**
+     * Reads until the next sentinel, passing on what has arrived as long as the sentinel has not.
+     * @param progress Receives the decoded chunks of the response as they arrive, or null.
+     * @return The decoded response, without the sentinel.
+     * @throws IOException when reading fails or the channel ends before the sentinel.
+     */
+    String readResponse(Consumer<String> progress) throws IOException {
+        this.length = 0;
+        this.reported = 0;
+        this.truncated = false;
+        if (this.response.length > RETAINED_SIZE) {
+            // don't hold on to the memory of an exceptionally large response
+            this.response = new byte[this.buffer.capacity()];
+        }
+
+        while (true) {
+            if (!this.buffer.hasRemaining()) {
+                this.fill();
+            }
+
+            byte[] data = this.buffer.array();
+            int start = this.buffer.arrayOffset() + this.buffer.position();
+            int end = this.buffer.arrayOffset() + this.buffer.limit();
+
+            for (int i = start; i < end; i++) {
+                if (data[i] == this.sentinel) {
+                    this.append(data, start, i - start);
+                    this.buffer.position(i + 1 - this.buffer.arrayOffset());
+                    if (this.truncated) {
+                        return new String(this.response, 0, this.completeLength(), StandardCharsets.UTF_8) + TRUNCATED;
+                    }
+                    return new String(this.response, 0, this.length, StandardCharsets.UTF_8);
+                }
+            }
+
+            this.append(data, start, end - start);
+            this.buffer.position(this.buffer.limit());
+            if (progress != null) {
+                this.report(progress);
+            }
+        }
+    }
+
+    /** @return whether the last response was cut off at the limit. */
+    boolean isTruncated() {
+        return this.truncated;
+    }
+
+    /** Passes on the complete characters that arrived since the last report. */
+    private void report(Consumer<String> progress) {
+        int end = this.completeLength();
+        if (end > this.reported) {
+            progress.accept(new String(this.response, this.reported, end - this.reported, StandardCharsets.UTF_8));
+            this.reported = end;
+        }
+    }
+
+    /** Reads the next block of input into the empty buffer. */
+    private void fill() throws IOException {
+        this.buffer.clear();
+        int n;
+        do {
+            n = this.channel.read(this.buffer);
+        } while (n == 0);
+        this.buffer.flip();
+
+        if (n < 0) {
+            throw new EOFException("ghci closed its output before the end of the response");
+        }
+        Metrics.get().bytesReceived.add(n);
+    }
+
+    /** @return the number of bytes of the response without a last character of which not all bytes are there. */
+    private int completeLength() {
+        int end = this.length;
+        int lead = end - 1;
+        while (lead >= 0 && lead > end - 4 && (this.response[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead >= 0) {
+            int b = this.response[lead] & 0xFF;
+            int size = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            if (lead + size > end) {
+                end = lead;
+            }
+        }
+        return end;
+    }
+
+    /** Adds a range of bytes to the response, growing it as needed, and discarding what goes over the limit. */
+    private void append(byte[] data, int offset, int count) {
+        if (count > this.limit - this.length) {
+            count = this.limit - this.length;
+            this.truncated = true;
+        }
+
+        if (this.length + count > this.response.length) {
+            this.response = Arrays.copyOf(this.response, Math.min(this.limit, Math.max(this.response.length * 2, this.length + count)));
+        }
+
+        System.arraycopy(data, offset, this.response, this.length, count);
+        this.length += count;
+    }
+}
@@ -0,0 +1,232 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.hash.Hashing;
+import nl.utwente.viskell.haskell.expr.Apply;
+import nl.utwente.viskell.haskell.expr.Binder;
+import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.haskell.type.Type;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lifts the let bindings of the expressions sent to ghci into ghci itself,
+ * so that a binding that stays the same is defined and evaluated only once.
+ *
+ * A let binding is shared under a name derived from its binder and a
+ * fingerprint of its definition, with a type annotation to keep it from being
+ * recomputed for every use. Only bindings of a monomorphic type that depend on
+ * nothing but other shared bindings are shared. Once its definition, or the
+ * definition of anything it depends on, changes, a binding is shared under a
+ * new name. So the rewritten code of an expression always means the same, and
+ * can be used to cache its result.
+ *
+ * The shared names used by the latest expression of every requester are
+ * live. Once a name is no longer live it is dropped, so ghci can free its
+ * value. The names used by expressions without a requester stay live, as
+ * nothing tells when their results are no longer needed.
+ */
+final class SharedBindings {
+    /** The prefix of all shared names. */
+    private static final String PREFIX = "shared_";
+
+    /** The number of hexadecimal digits of the fingerprint in a shared name. */
+    private static final int FINGERPRINT_LENGTH = 12;
+
+    /** The shared names that are bound in ghci. */
+    private final Set<String> defined;
+
+    /** The shared names used by the latest expression of every requester, null for those without one. */
+    private final Map<Object, Set<String>> used;
+
+    SharedBindings() {
+        this.defined = new HashSet<>();
+        // a requester that is gone no longer keeps its names live
+        this.used = new WeakHashMap<>();
+    }
+
+    /**
+     * Rewrites an expression to use shared bindings, defining those that are new or changed,
+     * and dropping those that are no longer used.
+     * @param requester The object the result is for, or null.
+     * @param expr The expression to evaluate.
+     * @param define Receives the shared name and declaration of every binding to define, in dependency order.
+     * @param drop Receives the shared name of every binding that is no longer used.
+     * @return The Haskell code to evaluate instead of the expression.
+     */
+    synchronized String rewrite(Object requester, Expression expr, BiConsumer<String, String> define, Consumer<String> drop) {
+        Map<String, String> shared = new HashMap<>();
+        Expression rewritten = this.rewriteLets(expr, define, shared);
+        Set<String> names = new HashSet<>(shared.values());
+
+        if (requester == null) {
+            this.used.computeIfAbsent(null, r -> new HashSet<>()).addAll(names);
+        } else {
+            this.used.put(requester, names);
+        }
+
+        Set<String> live = new HashSet<>();
+        this.used.values().forEach(live::addAll);
+        for (Iterator<String> stale = this.defined.iterator(); stale.hasNext(); ) {
+            String name = stale.next();
+            if (!live.contains(name)) {
+                stale.remove();
+                drop.accept(name);
+            }
+        }
+
+        return replaceNames(rewritten.toHaskell(), namePattern(shared.keySet()), shared::get);
+    }
+
+    /**
+     * Rebuilds the top level of an expression, with the shared bindings taken out of its let expressions.
+     * @param expr The expression, or part of it.
+     * @param define Receives the bindings to define.
+     * @param shared Collects the shared names, by the names of their binders.
+     * @return The expression without the shared bindings.
+     */
+    private Expression rewriteLets(Expression expr, BiConsumer<String, String> define, Map<String, String> shared) {
+        if (expr instanceof LetExpression && !((LetExpression) expr).isGuard()) {
+            return this.rewriteLet((LetExpression) expr, define, shared);
+        } else if (expr instanceof Apply) {
+            List<Expression> children = expr.getChildren();
+            return new Apply(this.rewriteLets(children.get(0), define, shared), this.rewriteLets(children.get(1), define, shared));
+        }
+        return expr;
+    }
+
+    /**
+     * Shares the bindings of a single let expression.
+     * @param let The let expression of which the bindings might be shared.
+     * @param define Receives the bindings to define.
+     * @param shared Collects the shared names, by the names of their binders.
+     * @return The let expression with only the bindings that are not shared, or its body if all of them are.
+     */
+    private Expression rewriteLet(LetExpression let, BiConsumer<String, String> define, Map<String, String> shared) {
+        // the code of every binding, by the name of its binder in the generated code
+        Map<String, String> code = new LinkedHashMap<>();
+        Map<String, Type> types = new HashMap<>();
+        for (Map.Entry<Binder, Expression> binding : let.getBindings().entrySet()) {
+            String name = binding.getKey().getUniqueName();
+            code.put(name, binding.getValue().toHaskell());
+            try {
+                Type type = binding.getKey().getBoundType().getConcrete();
+                if (type.isMonomorphic()) {
+                    types.put(name, type);
+                }
+            } catch (RuntimeException e) {
+                // not type checked, so not shareable
+            }
+        }
+
+        Pattern names = namePattern(code.keySet());
+        Map<String, String> fingerprints = new HashMap<>();
+        for (String name : code.keySet()) {
+            this.share(name, code, types, names, fingerprints, new ArrayList<>(), define);
+        }
+
+        // the shared bindings are left out, their uses are renamed once the code is generated
+        LetExpression rest = new LetExpression(let.getBody(), false);
+        for (Map.Entry<Binder, Expression> binding : let.getBindings().entrySet()) {
+            String name = binding.getKey().getUniqueName();
+            String fingerprint = fingerprints.get(name);
+            if (fingerprint != null) {
+                shared.put(name, sharedName(name, fingerprint));
+            } else {
+                rest.addLetBinding(binding.getKey(), binding.getValue());
+            }
+        }
+        return rest.getBindings().isEmpty() ? let.getBody() : rest;
+    }
+
+    /**
+     * Shares a binding, if possible, after sharing everything it depends on.
+     * @param name The name of the binder.
+     * @param code The code of all bindings in the let expression.
+     * @param types The monomorphic types of the bindings.
+     * @param names Matches the names of all binders in the let expression.
+     * @param fingerprints The fingerprints of the bindings handled so far, null if not shareable.
+     * @param visiting The bindings being handled, to detect recursion.
+     * @param define Receives the bindings to define.
+     * @return The fingerprint of the shared binding, or null if it can't be shared.
+     */
+    private String share(String name, Map<String, String> code, Map<String, Type> types, Pattern names,
+            Map<String, String> fingerprints, List<String> visiting, BiConsumer<String, String> define) {
+        if (fingerprints.containsKey(name) || visiting.contains(name)) {
+            // recursive bindings are not shared
+            return fingerprints.get(name);
+        }
+
+        visiting.add(name);
+        StringBuilder fingerprint = new StringBuilder();
+        boolean shareable = types.containsKey(name);
+        Matcher uses = names.matcher(code.get(name));
+        while (shareable && uses.find()) {
+            String dependency = this.share(uses.group(), code, types, names, fingerprints, visiting, define);
+            shareable = dependency != null;
+            fingerprint.append(dependency).append(';');
+        }
+        visiting.remove(name);
+
+        if (!shareable) {
+            fingerprints.put(name, null);
+            return null;
+        }
+
+        String type = types.get(name).prettyPrint();
+        String body = replaceNames(code.get(name), names, other -> {
+            String dependency = fingerprints.get(other);
+            return dependency == null ? null : sharedName(other, dependency);
+        });
+        fingerprint.append(type).append(" = ").append(body);
+        String hash = Hashing.sha1().hashString(fingerprint, StandardCharsets.UTF_8).toString();
+        fingerprints.put(name, hash);
+
+        String shared = sharedName(name, hash);
+        if (this.defined.add(shared)) {
+            define.accept(shared, String.format("%s :: %s; %s = %s", shared, type, shared, body));
+        }
+
+        return hash;
+    }
+
+    /** @return the shared name of a binder with a definition of the given fingerprint. */
+    private static String sharedName(String name, String fingerprint) {
+        return PREFIX + name + "_" + fingerprint.substring(0, FINGERPRINT_LENGTH);
+    }
+
+    /** @return the pattern that matches any of the names, but only as a whole identifier. */
+    private static Pattern namePattern(Collection<String> names) {
+        String alternatives = names.stream().map(Pattern::quote).reduce((a, b) -> a + "|" + b).orElse("(?!)");
+        return Pattern.compile("(?<![\\w'])(?:" + alternatives + ")(?![\\w'])");
+    }
+
+    /** Replaces the names of shared binders by their shared names, which are null for binders that are not shared. */
+    private static String replaceNames(String haskell, Pattern names, Function<String, String> sharedNames) {
+        Matcher matcher = names.matcher(haskell);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group();
+            String shared = sharedNames.apply(name);
+            String replacement = shared == null ? name : shared;
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
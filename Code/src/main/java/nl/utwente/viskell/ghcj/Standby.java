@@ -0,0 +1,94 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import nl.utwente.viskell.ghcj.GhciSession.Backend;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a started evaluator on standby, so that a session can start, or
+ * replace an evaluator that stopped responding, without waiting for ghci to
+ * start and load its modules. Whenever the standby evaluator is taken, a new
+ * one is started in the background.
+ *
+ * There is a single standby evaluator, for the backend that was asked for last.
+ */
+final class Standby {
+    /** Starts the evaluators. */
+    private static final ListeningExecutorService STARTER = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("ghci-standby-%d").setDaemon(true).build()));
+
+    /** The backend of the standby evaluator. */
+    private static Backend backend;
+
+    /** The standby evaluator, which might still be starting, or null. */
+    private static ListenableFuture<Evaluator> standby;
+
+    private Standby() {
+        // only static methods
+    }
+
+    /**
+     * Takes the standby evaluator if it is for the right backend, or starts a
+     * new evaluator otherwise. Either way a new standby evaluator is started.
+     * @param wanted The backend the evaluator is for.
+     * @return The evaluator, which might still be starting.
+     */
+    static synchronized ListenableFuture<Evaluator> take(Backend wanted) {
+        ListenableFuture<Evaluator> taken;
+        if (standby != null && backend == wanted) {
+            taken = standby;
+        } else {
+            discard(standby);
+            taken = start(wanted);
+        }
+
+        backend = wanted;
+        standby = start(wanted);
+        return taken;
+    }
+
+    /**
+     * Starts a new evaluator, without involving the standby.
+     * @param wanted The backend the evaluator is for.
+     * @return The evaluator, which might still be starting.
+     */
+    static ListenableFuture<Evaluator> start(Backend wanted) {
+        return STARTER.submit(() -> create(wanted));
+    }
+
+    /** Build the Evaluator that corresponds to the given Backend identifier. */
+    static Evaluator create(Backend evaluator) throws HaskellException {
+        switch (evaluator) {
+            case GHCi:  return new GhciEvaluator();
+            case Clash: return new ClashEvaluator();
+            default:    return new GhciEvaluator();
+        }
+    }
+
+    /** Closes an evaluator that is no longer needed, once it has started. */
+    private static void discard(ListenableFuture<Evaluator> unused) {
+        if (unused == null) {
+            return;
+        }
+
+        Futures.addCallback(unused, new FutureCallback<Evaluator>() {
+            public void onSuccess(Evaluator evaluator) {
+                try {
+                    evaluator.close();
+                } catch (HaskellException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            public void onFailure(Throwable t) {
+                // nothing to close
+            }
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package nl.utwente.viskell.haskell.env;
 
 import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.haskell.type.TypeTemplate;
 
 public abstract class FunctionInfo {
 
@@ -9,6 +10,9 @@ public abstract class FunctionInfo {
     
     /** The type signature the corresponding function. */
     private final Type signature;
+
+    /** The signature compiled for making fresh copies, see TypeTemplate. */
+    private final TypeTemplate template;
     
     /**
      * @param name The function name.
@@ -17,6 +21,7 @@ public abstract class FunctionInfo {
     protected FunctionInfo(String name, Type signature) {
         this.name = name;
         this.signature = signature;
+        this.template = TypeTemplate.of(signature);
     }
 
     /** @return The internal name of this function. */
@@ -31,7 +36,7 @@ public abstract class FunctionInfo {
 
     /** @return The a fresh copy of type signature of this function. */
     public final Type getFreshSignature() {
-        return this.signature.getFresh();
+        return this.template.instantiate();
     }
     
     /** @return the number of argument this function can take. */
@@ -105,7 +105,8 @@ public class HaskellCatalog {
     public final Collection<CatalogFunction> getByType(final Type type) {
         return getByPredicate(fn -> {
             try {
-                TypeChecker.unify("catalog query", fn.getFreshSignature(), type.getFresh());
+                // the query type is left as it was, so it needs no copy per function
+                TypeChecker.trialUnify("catalog query", fn.getFreshSignature(), type);
             } catch (HaskellTypeError e) {
                 return false;
             }
@@ -0,0 +1,14 @@
+package nl.utwente.viskell.haskell.eval;
+
+/**
+ * A compiled expression.
+ */
+@FunctionalInterface
+interface Code {
+    /**
+     * @param env The values of the variables in scope, by slot.
+     * @return The value of the expression.
+     * @throws Unsupported when the value can not be computed by the interpreter.
+     */
+    Object run(Object[] env) throws Unsupported;
+}
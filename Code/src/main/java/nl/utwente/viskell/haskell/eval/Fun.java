@@ -0,0 +1,14 @@
+package nl.utwente.viskell.haskell.eval;
+
+/**
+ * A function value, which takes its arguments one at a time.
+ */
+@FunctionalInterface
+interface Fun {
+    /**
+     * @param arg The next argument.
+     * @return The result, which is another function if more arguments are needed.
+     * @throws Unsupported when the result can not be computed by the interpreter.
+     */
+    Object apply(Object arg) throws Unsupported;
+}
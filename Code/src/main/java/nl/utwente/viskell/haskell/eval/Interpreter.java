@@ -0,0 +1,357 @@
+package nl.utwente.viskell.haskell.eval;
+
+import nl.utwente.viskell.haskell.expr.Annotated;
+import nl.utwente.viskell.haskell.expr.Apply;
+import nl.utwente.viskell.haskell.expr.Binder;
+import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.FunVar;
+import nl.utwente.viskell.haskell.expr.Lambda;
+import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.haskell.expr.LocalVar;
+import nl.utwente.viskell.haskell.expr.Value;
+import nl.utwente.viskell.haskell.type.HaskellTypeError;
+import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.haskell.type.TypeCon;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates simple expressions inside the JVM, without a round trip to ghci.
+ *
+ * An expression is compiled into a tree of lambdas first, which can be run
+ * many times, for example for every point of a graph. The interpreter knows
+ * the numeric and comparison functions of the Prelude, Bool, tuples, and the
+ * basic function combinators, on Int, Integer, Double and Bool values. Let
+ * bindings are lazy, function arguments are strict. Anything else, including
+ * every error such as an overflow or a division by zero, makes it give up, so
+ * that the expression can be evaluated by ghci instead, which always has the
+ * final say.
+ */
+public final class Interpreter {
+    /** The syntax of an integer literal. */
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+
+    /** The syntax of a floating point literal. */
+    private static final Pattern FLOATING = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+    /** The slot of every variable in scope in the environment. */
+    private final Map<Binder, Integer> slots;
+
+    /** The number of slots in the environment. */
+    private int frameSize;
+
+    private Interpreter() {
+        this.slots = new HashMap<>();
+    }
+
+    /**
+     * Evaluates an expression, and shows its value as ghci would.
+     * @param expr The expression to evaluate, of which the types were checked.
+     * @return The shown value, or nothing if the expression needs to be evaluated by ghci.
+     */
+    public static Optional<String> show(Expression expr) {
+        try {
+            Interpreter interpreter = new Interpreter();
+            Code code = interpreter.compile(expr);
+            return Optional.of(showValue(code.run(new Object[interpreter.frameSize])));
+        } catch (Unsupported | ArithmeticException | StackOverflowError e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Evaluates a function from Double to Double at several points.
+     * @param function The function to evaluate, of which the types were checked.
+     * @param xs The points to evaluate the function at.
+     * @return The function values at all points, or nothing if the function needs to be evaluated by ghci.
+     */
+    public static Optional<double[]> sample(Expression function, double[] xs) {
+        try {
+            Interpreter interpreter = new Interpreter();
+            Object fun = interpreter.compile(function).run(new Object[interpreter.frameSize]);
+            double[] ys = new double[xs.length];
+            for (int i = 0; i < xs.length; i++) {
+                Object y = Primitive.call(fun, xs[i]);
+                if (!(y instanceof Double)) {
+                    return Optional.empty();
+                }
+                ys[i] = (Double) y;
+            }
+            return Optional.of(ys);
+        } catch (Unsupported | ArithmeticException | StackOverflowError e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param expr An expression.
+     * @return the code computing the value of the expression.
+     * @throws Unsupported when the expression is outside what the interpreter knows.
+     */
+    private Code compile(Expression expr) throws Unsupported {
+        if (expr instanceof Value) {
+            Object constant = literal((Value) expr);
+            return env -> constant;
+        } else if (expr instanceof LocalVar) {
+            Integer slot = this.slots.get(((LocalVar) expr).getBinder());
+            if (slot == null) {
+                throw new Unsupported("variable bound outside the expression");
+            }
+            int index = slot;
+            return env -> Thunk.force(env[index]);
+        } else if (expr instanceof FunVar) {
+            Primitive primitive = lookup((FunVar) expr);
+            Object constant = primitive.arity == 0 ? primitive.body.apply(new Object[0]) : primitive.partial(new Object[0]);
+            return env -> constant;
+        } else if (expr instanceof Apply) {
+            return this.compileApply(expr);
+        } else if (expr instanceof Annotated) {
+            return this.compile(expr.getChildren().get(0));
+        } else if (expr instanceof Lambda) {
+            return this.compileLambda((Lambda) expr);
+        } else if (expr instanceof LetExpression) {
+            return this.compileLet((LetExpression) expr);
+        }
+
+        throw new Unsupported(expr.getClass().getSimpleName());
+    }
+
+    /** @return the code of a chain of applications, calling a primitive directly if it gets all its arguments. */
+    private Code compileApply(Expression expr) throws Unsupported {
+        List<Expression> args = new ArrayList<>();
+        Expression head = expr;
+        while (head instanceof Apply) {
+            List<Expression> children = head.getChildren();
+            args.add(0, children.get(1));
+            head = children.get(0);
+        }
+
+        Code[] codes = new Code[args.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = this.compile(args.get(i));
+        }
+
+        Primitive primitive = head instanceof FunVar ? lookup((FunVar) head) : null;
+        if (primitive != null && primitive.arity > 0 && codes.length >= primitive.arity) {
+            int arity = primitive.arity;
+            return env -> {
+                Object[] values = new Object[arity];
+                for (int i = 0; i < arity; i++) {
+                    values[i] = codes[i].run(env);
+                }
+                Object result = primitive.body.apply(values);
+                for (int i = arity; i < codes.length; i++) {
+                    result = Primitive.call(result, codes[i].run(env));
+                }
+                return result;
+            };
+        }
+
+        Code fun = this.compile(head);
+        return env -> {
+            Object result = fun.run(env);
+            for (Code code : codes) {
+                result = Primitive.call(result, code.run(env));
+            }
+            return result;
+        };
+    }
+
+    /** @return the code of a lambda, which makes a closure over the environment. */
+    private Code compileLambda(Lambda lambda) throws Unsupported {
+        List<Binder> binders = lambda.getBinders();
+        if (binders.isEmpty()) {
+            // a lambda without binders is applied to () right away
+            return this.compile(lambda.getBody());
+        }
+
+        int[] params = new int[binders.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = this.bind(binders.get(i));
+        }
+
+        Code body = this.compile(lambda.getBody());
+        return env -> closure(body, params, env, 0);
+    }
+
+    /**
+     * @param body The code of the body of the lambda.
+     * @param params The slots of the parameters.
+     * @param env The environment, with the parameters given so far.
+     * @param given The number of parameters given so far.
+     * @return the function value taking the next parameter.
+     */
+    private static Fun closure(Code body, int[] params, Object[] env, int given) {
+        return arg -> {
+            // every application gets its own environment, as closures made by earlier ones keep theirs
+            Object[] frame = env.clone();
+            frame[params[given]] = arg;
+            return given + 1 == params.length ? body.run(frame) : closure(body, params, frame, given + 1);
+        };
+    }
+
+    /** @return the code of a let expression, of which the bindings are only computed when used. */
+    private Code compileLet(LetExpression let) throws Unsupported {
+        if (let.isGuard()) {
+            throw new Unsupported("pattern guard");
+        }
+
+        Map<Binder, Expression> bindings = let.getBindings();
+        int[] targets = new int[bindings.size()];
+        int i = 0;
+        for (Binder binder : bindings.keySet()) {
+            targets[i++] = this.bind(binder);
+        }
+
+        Code[] codes = new Code[targets.length];
+        i = 0;
+        for (Expression expr : bindings.values()) {
+            codes[i++] = this.compile(expr);
+        }
+
+        Code body = this.compile(let.getBody());
+        return env -> {
+            for (int j = 0; j < targets.length; j++) {
+                env[targets[j]] = new Thunk(codes[j], env);
+            }
+            return body.run(env);
+        };
+    }
+
+    /** @return the new slot of a variable. */
+    private int bind(Binder binder) {
+        int slot = this.frameSize++;
+        this.slots.put(binder, slot);
+        return slot;
+    }
+
+    /** @return the primitive of a function. */
+    private static Primitive lookup(FunVar var) throws Unsupported {
+        Primitive primitive = Primitive.lookup(var.toHaskell());
+        if (primitive == null) {
+            throw new Unsupported(var.toHaskell());
+        }
+        return primitive;
+    }
+
+    /** @return the value of a literal, of the type it has after defaulting. */
+    private static Object literal(Value value) throws Unsupported {
+        Type type;
+        try {
+            type = value.inferType().defaultedConcreteType(Type.con("Integer")).orElse(null);
+        } catch (HaskellTypeError e) {
+            type = null;
+        }
+        if (!(type instanceof TypeCon)) {
+            throw new Unsupported("literal type");
+        }
+
+        String text = value.getValue().trim();
+        while (text.startsWith("(") && text.endsWith(")")) {
+            text = text.substring(1, text.length() - 1).trim();
+        }
+
+        try {
+            switch (((TypeCon) type).getName()) {
+                case "Bool":
+                    if ("True".equals(text) || "False".equals(text)) {
+                        return Boolean.valueOf(text);
+                    }
+                    break;
+                case "Int":
+                case "Integer":
+                    if (INTEGER.matcher(text).matches()) {
+                        return Long.parseLong(text);
+                    }
+                    break;
+                case "Double":
+                    if (FLOATING.matcher(text).matches()) {
+                        return Double.parseDouble(text);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // too large, so leave it to ghci
+        }
+
+        throw new Unsupported("literal " + text);
+    }
+
+    /** @return a value shown as ghci would. */
+    private static String showValue(Object value) throws Unsupported {
+        if (value instanceof Long) {
+            return value.toString();
+        } else if (value instanceof Double) {
+            return showDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? "True" : "False";
+        } else if (value instanceof Tuple) {
+            StringBuilder out = new StringBuilder("(");
+            Object[] elements = ((Tuple) value).elements;
+            for (int i = 0; i < elements.length; i++) {
+                out.append(i == 0 ? "" : ",").append(showValue(elements[i]));
+            }
+            return out.append(')').toString();
+        }
+
+        throw new Unsupported("no Show instance");
+    }
+
+    /**
+     * Shows a Double as Haskell does: with the fewest digits that read back to
+     * the same number, in plain notation from 0.1 up to 10^7 and with an
+     * exponent otherwise.
+     * @param x The number to show.
+     * @return the shown number.
+     */
+    static String showDouble(double x) {
+        if (Double.isNaN(x)) {
+            return "NaN";
+        } else if (Double.isInfinite(x)) {
+            return x > 0 ? "Infinity" : "-Infinity";
+        } else if (x < 0 || 1 / x < 0) {
+            return "-" + showDouble(-x);
+        } else if (x == 0) {
+            return "0.0";
+        }
+
+        // the shortest digits that read back as the same number
+        BigDecimal exact = new BigDecimal(x);
+        BigDecimal shortest = exact;
+        for (int precision = 1; precision <= 17; precision++) {
+            shortest = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+            if (shortest.doubleValue() == x) {
+                break;
+            }
+        }
+
+        String digits = shortest.unscaledValue().toString().replaceAll("0+$", "");
+        // the number is 0.digits * 10^e
+        int e = shortest.precision() - shortest.scale();
+
+        if (e < 0 || e > 7) {
+            String rest = digits.length() > 1 ? digits.substring(1) : "0";
+            return digits.charAt(0) + "." + rest + "e" + (e - 1);
+        } else if (e == 0) {
+            return "0." + digits;
+        } else if (digits.length() <= e) {
+            StringBuilder whole = new StringBuilder(digits);
+            while (whole.length() < e) {
+                whole.append('0');
+            }
+            return whole + ".0";
+        }
+
+        return digits.substring(0, e) + "." + digits.substring(e);
+    }
+}
@@ -0,0 +1,360 @@
+package nl.utwente.viskell.haskell.eval;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A function of the catalog that the interpreter knows how to compute.
+ *
+ * Int and Integer values are both represented by a Long, on which all
+ * arithmetic is checked. An overflow throws an ArithmeticException, so the
+ * expression is left to ghci, which knows whether to wrap around or to grow.
+ * Float is not supported at all, Double values are represented by a Double.
+ */
+final class Primitive {
+    /** The computation of a primitive. */
+    @FunctionalInterface
+    interface Body {
+        /**
+         * @param args The arguments, as many as the arity, all computed already.
+         * @return The result.
+         * @throws Unsupported when the result can not be computed by the interpreter.
+         */
+        Object apply(Object[] args) throws Unsupported;
+    }
+
+    /** The primitives, by their name in the catalog. */
+    private static final Map<String, Primitive> PRIMITIVES = new HashMap<>();
+
+    /** The number of arguments the primitive needs before it can compute its result. */
+    final int arity;
+
+    /** The computation of the result. */
+    final Body body;
+
+    private Primitive(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    /**
+     * @param name The name of a function in the catalog.
+     * @return the primitive computing that function, or null if the interpreter does not know it.
+     */
+    static Primitive lookup(String name) {
+        return PRIMITIVES.get(name);
+    }
+
+    /** Adds a primitive to the table. */
+    private static void define(String name, int arity, Body body) {
+        PRIMITIVES.put(name, new Primitive(arity, body));
+    }
+
+    static {
+        // Num
+        define("(+)", 2, a -> arith(a[0], a[1], Math::addExact, (x, y) -> x + y));
+        define("(-)", 2, a -> arith(a[0], a[1], Math::subtractExact, (x, y) -> x - y));
+        define("(*)", 2, a -> arith(a[0], a[1], Math::multiplyExact, (x, y) -> x * y));
+        define("negate", 1, a -> a[0] instanceof Long ? (Object) Math.negateExact((Long) a[0]) : (Object) (-asDouble(a[0])));
+        define("abs", 1, a -> a[0] instanceof Long ? (Object) abs((Long) a[0]) : (Object) Math.abs(asDouble(a[0])));
+        define("signum", 1, a -> a[0] instanceof Long ? (Object) (long) Long.signum((Long) a[0]) : (Object) Math.signum(asDouble(a[0])));
+
+        // Integral
+        define("quot", 2, a -> quot(asLong(a[0]), asLong(a[1])));
+        define("rem", 2, a -> asLong(a[0]) % asLong(a[1]));
+        define("div", 2, a -> Math.floorDiv(asLong(a[0]), nonOverflowing(asLong(a[0]), asLong(a[1]))));
+        define("mod", 2, a -> Math.floorMod(asLong(a[0]), asLong(a[1])));
+        define("even", 1, a -> asLong(a[0]) % 2 == 0);
+        define("odd", 1, a -> asLong(a[0]) % 2 != 0);
+        define("gcd", 2, a -> gcd(asLong(a[0]), asLong(a[1])));
+        define("lcm", 2, a -> lcm(asLong(a[0]), asLong(a[1])));
+        define("toInteger", 1, a -> asLong(a[0]));
+        define("(^)", 2, a -> power(a[0], asLong(a[1])));
+
+        // Fractional and Floating
+        define("(/)", 2, a -> asDouble(a[0]) / asDouble(a[1]));
+        define("recip", 1, a -> 1 / asDouble(a[0]));
+        define("(^^)", 2, a -> asLong(a[1]) >= 0 ? power(asDouble(a[0]), asLong(a[1])) : 1 / (Double) power(asDouble(a[0]), Math.negateExact(asLong(a[1]))));
+        define("pi", 0, a -> Math.PI);
+        floating("exp", Math::exp);
+        floating("log", Math::log);
+        floating("sqrt", Math::sqrt);
+        floating("sin", Math::sin);
+        floating("cos", Math::cos);
+        floating("tan", Math::tan);
+        floating("asin", Math::asin);
+        floating("acos", Math::acos);
+        floating("atan", Math::atan);
+        define("(**)", 2, a -> Math.pow(asDouble(a[0]), asDouble(a[1])));
+        define("logBase", 2, a -> Math.log(asDouble(a[1])) / Math.log(asDouble(a[0])));
+
+        // RealFrac and RealFloat
+        define("truncate", 1, a -> toLong(asDouble(a[0])));
+        define("round", 1, a -> toLong(Math.rint(asDouble(a[0]))));
+        define("ceiling", 1, a -> toLong(Math.ceil(asDouble(a[0]))));
+        define("floor", 1, a -> toLong(Math.floor(asDouble(a[0]))));
+        define("properFraction", 1, a -> {
+            double x = asDouble(a[0]);
+            long n = toLong(x);
+            return new Tuple(n, x - n);
+        });
+        define("isNaN", 1, a -> Double.isNaN(asDouble(a[0])));
+        define("isInfinite", 1, a -> Double.isInfinite(asDouble(a[0])));
+
+        // Enum
+        define("succ", 1, a -> step(a[0], 1));
+        define("pred", 1, a -> step(a[0], -1));
+
+        // Eq and Ord
+        define("(==)", 2, a -> equal(a[0], a[1]));
+        define("(/=)", 2, a -> !equal(a[0], a[1]));
+        define("(<)", 2, a -> a[0] instanceof Double ? asDouble(a[0]) < asDouble(a[1]) : compare(a[0], a[1]) < 0);
+        define("(<=)", 2, a -> lessOrEqual(a[0], a[1]));
+        define("(>)", 2, a -> a[0] instanceof Double ? asDouble(a[0]) > asDouble(a[1]) : compare(a[0], a[1]) > 0);
+        define("(>=)", 2, a -> a[0] instanceof Double ? asDouble(a[0]) >= asDouble(a[1]) : compare(a[0], a[1]) >= 0);
+        define("max", 2, a -> lessOrEqual(a[0], a[1]) ? a[1] : a[0]);
+        define("min", 2, a -> lessOrEqual(a[0], a[1]) ? a[0] : a[1]);
+
+        // Bool
+        define("True", 0, a -> true);
+        define("False", 0, a -> false);
+        define("(&&)", 2, a -> asBool(a[0]) && asBool(a[1]));
+        define("(||)", 2, a -> asBool(a[0]) || asBool(a[1]));
+        define("not", 1, a -> !asBool(a[0]));
+
+        // tuples
+        define("()", 0, a -> new Tuple());
+        define("(,)", 2, Tuple::new);
+        define("(,,)", 3, Tuple::new);
+        define("(,,,)", 4, Tuple::new);
+        define("(,,,,)", 5, Tuple::new);
+        define("fst", 1, a -> element(a[0], 2, 0));
+        define("snd", 1, a -> element(a[0], 2, 1));
+        define("curry", 3, a -> call(a[0], new Tuple(a[1], a[2])));
+        define("uncurry", 2, a -> call(call(a[0], element(a[1], 2, 0)), element(a[1], 2, 1)));
+
+        // functions
+        define("id", 1, a -> a[0]);
+        define("const", 2, a -> a[0]);
+        define("(.)", 3, a -> call(a[0], call(a[1], a[2])));
+        define("flip", 3, a -> call(call(a[0], a[2]), a[1]));
+        define("($)", 2, a -> call(a[0], a[1]));
+        define("($!)", 2, a -> call(a[0], a[1]));
+        define("seq", 2, a -> a[1]);
+    }
+
+    /** Adds a Floating function of a single argument. */
+    private static void floating(String name, DoubleUnaryOperator op) {
+        define(name, 1, a -> op.applyAsDouble(asDouble(a[0])));
+    }
+
+    /**
+     * Applies a function value to an argument.
+     * @param fun The function value.
+     * @param arg The argument.
+     * @return The result.
+     * @throws Unsupported when the function is not a function value of the interpreter.
+     */
+    static Object call(Object fun, Object arg) throws Unsupported {
+        if (!(fun instanceof Fun)) {
+            throw new Unsupported("not a function");
+        }
+        return ((Fun) fun).apply(arg);
+    }
+
+    /**
+     * @param fixed The arguments given so far.
+     * @return the value of this primitive applied to fewer arguments than its arity.
+     */
+    Fun partial(Object[] fixed) {
+        return arg -> {
+            Object[] args = new Object[fixed.length + 1];
+            System.arraycopy(fixed, 0, args, 0, fixed.length);
+            args[fixed.length] = arg;
+            return args.length == this.arity ? this.body.apply(args) : this.partial(args);
+        };
+    }
+
+    private static long asLong(Object value) throws Unsupported {
+        if (!(value instanceof Long)) {
+            throw new Unsupported("not an integral number");
+        }
+        return (Long) value;
+    }
+
+    private static double asDouble(Object value) throws Unsupported {
+        if (!(value instanceof Double)) {
+            throw new Unsupported("not a Double");
+        }
+        return (Double) value;
+    }
+
+    private static boolean asBool(Object value) throws Unsupported {
+        if (!(value instanceof Boolean)) {
+            throw new Unsupported("not a Bool");
+        }
+        return (Boolean) value;
+    }
+
+    /** Applies an operator to two numbers of the same representation. */
+    private static Object arith(Object x, Object y, LongBinaryOperator onLong, DoubleBinaryOperator onDouble) throws Unsupported {
+        if (x instanceof Long) {
+            return onLong.applyAsLong((Long) x, asLong(y));
+        }
+        return onDouble.applyAsDouble(asDouble(x), asDouble(y));
+    }
+
+    private static long abs(long x) {
+        if (x == Long.MIN_VALUE) {
+            throw new ArithmeticException("long overflow");
+        }
+        return Math.abs(x);
+    }
+
+    /** @return the divisor, after checking the division can't overflow. */
+    private static long nonOverflowing(long dividend, long divisor) {
+        if (dividend == Long.MIN_VALUE && divisor == -1) {
+            throw new ArithmeticException("long overflow");
+        }
+        return divisor;
+    }
+
+    private static long quot(long x, long y) {
+        return x / nonOverflowing(x, y);
+    }
+
+    private static long gcd(long x, long y) {
+        long a = abs(x);
+        long b = abs(y);
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    private static long lcm(long x, long y) {
+        if (x == 0 || y == 0) {
+            return 0;
+        }
+        return abs(Math.multiplyExact(x / gcd(x, y), y));
+    }
+
+    /** Raises a number to a natural power, with the same sequence of multiplications as the Prelude, so Doubles round the same. */
+    private static Object power(Object base, long exponent) throws Unsupported {
+        if (exponent < 0) {
+            throw new Unsupported("negative exponent");
+        }
+        if (exponent == 0) {
+            return base instanceof Long ? (Object) 1L : (Object) 1.0;
+        }
+
+        LongBinaryOperator mulLong = Math::multiplyExact;
+        DoubleBinaryOperator mulDouble = (a, b) -> a * b;
+        Object x = base;
+        long y = exponent;
+        Object z = null;
+        while (true) {
+            if (y % 2 == 0) {
+                x = arith(x, x, mulLong, mulDouble);
+                y = y / 2;
+            } else if (y == 1) {
+                return z == null ? x : arith(x, z, mulLong, mulDouble);
+            } else {
+                z = z == null ? x : arith(x, z, mulLong, mulDouble);
+                x = arith(x, x, mulLong, mulDouble);
+                y = y / 2;
+            }
+        }
+    }
+
+    /** @return the integral part of a Double, if it fits. */
+    private static long toLong(double x) throws Unsupported {
+        if (!(Math.abs(x) < 0x1p63)) {
+            throw new Unsupported("too large, or not a number");
+        }
+        return (long) x;
+    }
+
+    /** @return the successor or predecessor of a value. */
+    private static Object step(Object value, int delta) throws Unsupported {
+        if (value instanceof Long) {
+            return Math.addExact((Long) value, delta);
+        }
+        if (value instanceof Double) {
+            return (Double) value + delta;
+        }
+        if (asBool(value) == (delta < 0)) {
+            return delta > 0;
+        }
+        throw new Unsupported("no successor or predecessor");
+    }
+
+    /** @return the element of a tuple of the given size. */
+    private static Object element(Object tuple, int size, int index) throws Unsupported {
+        if (!(tuple instanceof Tuple) || ((Tuple) tuple).elements.length != size) {
+            throw new Unsupported("not a tuple");
+        }
+        return ((Tuple) tuple).elements[index];
+    }
+
+    /** @return whether two values are equal, with IEEE semantics for Doubles. */
+    static boolean equal(Object x, Object y) throws Unsupported {
+        if (x instanceof Double) {
+            return asDouble(x) == asDouble(y);
+        }
+        if (x instanceof Tuple && y instanceof Tuple) {
+            Object[] xs = ((Tuple) x).elements;
+            Object[] ys = ((Tuple) y).elements;
+            for (int i = 0; i < xs.length; i++) {
+                if (!equal(xs[i], ys[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (x instanceof Long || x instanceof Boolean) {
+            if (x.getClass() != y.getClass()) {
+                throw new Unsupported("mismatching values");
+            }
+            return x.equals(y);
+        }
+        throw new Unsupported("no equality");
+    }
+
+    /** @return whether the first value is less than or equal to the second, with IEEE semantics for Doubles. */
+    private static boolean lessOrEqual(Object x, Object y) throws Unsupported {
+        return x instanceof Double ? asDouble(x) <= asDouble(y) : compare(x, y) <= 0;
+    }
+
+    /** @return the ordering of two values, as by compare in the Prelude. */
+    static int compare(Object x, Object y) throws Unsupported {
+        if (x instanceof Long) {
+            return Long.compare((Long) x, asLong(y));
+        }
+        if (x instanceof Double) {
+            double a = asDouble(x);
+            double b = asDouble(y);
+            return a < b ? -1 : a == b ? 0 : 1;
+        }
+        if (x instanceof Boolean) {
+            return Boolean.compare((Boolean) x, asBool(y));
+        }
+        if (x instanceof Tuple && y instanceof Tuple) {
+            Object[] xs = ((Tuple) x).elements;
+            Object[] ys = ((Tuple) y).elements;
+            for (int i = 0; i < xs.length; i++) {
+                int order = compare(xs[i], ys[i]);
+                if (order != 0) {
+                    return order;
+                }
+            }
+            return 0;
+        }
+        throw new Unsupported("no ordering");
+    }
+}
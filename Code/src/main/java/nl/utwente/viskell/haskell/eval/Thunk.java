@@ -0,0 +1,52 @@
+package nl.utwente.viskell.haskell.eval;
+
+/**
+ * A let bound value that is only computed when it is used, at most once.
+ */
+final class Thunk {
+    /** The code computing the value, or null once it was computed. */
+    private Code code;
+
+    /** The variables in scope of the code, or null once the value was computed. */
+    private Object[] env;
+
+    /** The computed value. */
+    private Object value;
+
+    /** Whether the value is being computed, to detect a binding that depends on itself. */
+    private boolean forcing;
+
+    /**
+     * @param code The code computing the value.
+     * @param env The variables in scope of the code.
+     */
+    Thunk(Code code, Object[] env) {
+        this.code = code;
+        this.env = env;
+    }
+
+    /**
+     * @param value A value, or a thunk of a value.
+     * @return the value, computing it if needed.
+     * @throws Unsupported when the value can not be computed by the interpreter.
+     */
+    static Object force(Object value) throws Unsupported {
+        return value instanceof Thunk ? ((Thunk) value).force() : value;
+    }
+
+    /** @return the value, computing it the first time. */
+    private Object force() throws Unsupported {
+        if (this.code != null) {
+            if (this.forcing) {
+                throw new Unsupported("recursive binding");
+            }
+
+            this.forcing = true;
+            this.value = this.code.run(this.env);
+            this.code = null;
+            this.env = null;
+        }
+
+        return this.value;
+    }
+}
@@ -0,0 +1,16 @@
+package nl.utwente.viskell.haskell.eval;
+
+/**
+ * A tuple value, the unit value being the tuple without elements.
+ */
+final class Tuple {
+    /** The elements of the tuple. */
+    final Object[] elements;
+
+    /**
+     * @param elements The elements of the tuple.
+     */
+    Tuple(Object... elements) {
+        this.elements = elements;
+    }
+}
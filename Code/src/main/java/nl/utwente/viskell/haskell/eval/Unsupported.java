@@ -0,0 +1,17 @@
+package nl.utwente.viskell.haskell.eval;
+
+/**
+ * Signals that an expression is outside what the interpreter can evaluate,
+ * so it needs to be evaluated by ghci instead.
+ */
+final class Unsupported extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param reason What the interpreter could not deal with.
+     */
+    Unsupported(String reason) {
+        // thrown often and never shown, so skip the stack trace
+        super(reason, null, false, false);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Provides an interpreter for a small part of Haskell, to evaluate simple
+ * expressions without a round trip to ghci.
+ */
+package nl.utwente.viskell.haskell.eval;
@@ -26,6 +26,16 @@ public class Lambda extends Expression {
         this.body = body;
     }
 
+    /** @return The variable binders of this lambda, in order. */
+    public List<Binder> getBinders() {
+        return this.binders;
+    }
+
+    /** @return The expression in the body of this lambda. */
+    public Expression getBody() {
+        return this.body;
+    }
+
     @Override
     public Type inferType() throws HaskellTypeError {
         TypeScope scope = new TypeScope();
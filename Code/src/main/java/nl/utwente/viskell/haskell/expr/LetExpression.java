@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import nl.utwente.viskell.haskell.type.HaskellTypeError;
 import nl.utwente.viskell.haskell.type.Type;
@@ -34,6 +35,16 @@ public class LetExpression extends Expression {
     public Expression getBody() {
         return this.body;
     }
+
+    /** @return An unmodifiable view of the let bindings, in the order they were added. */
+    public Map<Binder, Expression> getBindings() {
+        return Collections.unmodifiableMap(this.binders);
+    }
+
+    /** @return whether this expression is compiled as a pattern guard. */
+    public boolean isGuard() {
+        return this.isGuard;
+    }
     
     /**
      * Extends a let expression with an extra binding.
@@ -19,6 +19,11 @@ public class LocalVar extends Variable {
         this.binder = binder;
     }
 
+    /** @return the binder this variable is bound to. */
+    public Binder getBinder() {
+        return this.binder;
+    }
+
     @Override
     public Type inferType() throws HaskellTypeError {
         return binder.getBoundType();
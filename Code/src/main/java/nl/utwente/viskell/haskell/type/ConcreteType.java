@@ -5,4 +5,7 @@ package nl.utwente.viskell.haskell.type;
  */
 public abstract class ConcreteType extends Type {
 
+    /** Whether this is the single interned instance of a type without type variables, see GroundTypes. */
+    boolean ground;
+
 }
@@ -31,6 +31,7 @@ public final class ConstraintSet {
      * @param tc the type class to extend this constraint set with
      */
     protected void addExtraConstraint(TypeClass tc) {
+        this.remember();
         this.constraints.add(tc);
         this.simplifyConstraints();
     }
@@ -39,6 +40,7 @@ public final class ConstraintSet {
      * @param extras additional constraint set to extend this constraint set with
      */
     protected void addExtraConstraint(ConstraintSet extras) {
+        this.remember();
         this.constraints.addAll(extras.constraints);
         this.simplifyConstraints();
     }
@@ -75,6 +77,16 @@ public final class ConstraintSet {
         return results;
     }
     
+    /**
+     * Records the current constraints in the open trail, if any, before they change.
+     */
+    private void remember() {
+        if (Trail.isOpen()) {
+            TreeSet<TypeClass> saved = new TreeSet<>(this.constraints);
+            Trail.record(() -> this.constraints = saved);
+        }
+    }
+
     /**
      * simplify the constraint set by removing super class implications
      */
@@ -98,6 +110,7 @@ public final class ConstraintSet {
      * @throws HaskellTypeError if the combined constraint set is not satisfiable.
      */
     protected void mergeConstraintsWith(ConstraintSet other) throws HaskellTypeError {
+        this.remember();
         this.constraints = new TreeSet<>(Sets.union(this.constraints, other.constraints));
         this.simplifyConstraints();
         this.checkSatisfiable();
@@ -49,12 +49,21 @@ public class FunType extends ConcreteType {
 
     @Override
     public FunType getFresh(TypeScope scope) {
-        return new FunType(this.argument.getFresh(scope), this.result.getFresh(scope));
+        if (this.ground) {
+            // without type variables there is nothing to refresh
+            return this;
+        }
+
+        return GroundTypes.fun(this.argument.getFresh(scope), this.result.getFresh(scope));
     }
 
     @Override
 	public Type getConcrete() {
-    	return new FunType(this.argument.getConcrete(), this.result.getConcrete());
+    	if (this.ground) {
+    		return this;
+    	}
+
+    	return GroundTypes.fun(this.argument.getConcrete(), this.result.getConcrete());
 	}
 
 	@Override
@@ -0,0 +1,123 @@
+package nl.utwente.viskell.haskell.type;
+
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the types without type variables, so every such type exists only once.
+ *
+ * Type constructors are interned by name, function types and type applications
+ * by the identity of their interned parts, so two ground types are equal exactly
+ * if they are the same object. Ground types are immutable, so they can be shared
+ * by any number of other types. A type built from parts that are not all ground
+ * is never interned. An interned type is kept as long as it is in use.
+ */
+final class GroundTypes {
+    /** The interned types, by name for type constructors and by a Key otherwise. */
+    private static final ConcurrentMap<Object, ConcreteType> TYPES = CacheBuilder.newBuilder().weakValues().<Object, ConcreteType>build().asMap();
+
+    private GroundTypes() {
+    }
+
+    /**
+     * @param type A type.
+     * @return whether the type is an interned ground type.
+     */
+    static boolean isGround(Type type) {
+        return type instanceof ConcreteType && ((ConcreteType) type).ground;
+    }
+
+    /**
+     * @param name The name of a type constructor.
+     * @return The type constructor with the name.
+     */
+    static TypeCon con(String name) {
+        ConcreteType known = TYPES.get(name);
+        if (known != null) {
+            return (TypeCon) known;
+        }
+
+        final TypeCon fresh;
+        if ("[]".equals(name)) {
+            fresh = new ListTypeCon();
+        } else if ("()".equals(name)) {
+            fresh = new TupleTypeCon(0);
+        } else if (name.startsWith("(,")) {
+            fresh = new TupleTypeCon(name.length() - 1);
+        } else {
+            fresh = new TypeCon(name);
+        }
+
+        return (TypeCon) intern(name, fresh);
+    }
+
+    /**
+     * @param arg The argument type.
+     * @param res The result type.
+     * @return The function type, shared if both parts are ground.
+     */
+    static FunType fun(Type arg, Type res) {
+        if (!isGround(arg) || !isGround(res)) {
+            return new FunType(arg, res);
+        }
+
+        Key key = new Key(Key.FUN, arg, res);
+        ConcreteType known = TYPES.get(key);
+        return (FunType) (known != null ? known : intern(key, new FunType(arg, res)));
+    }
+
+    /**
+     * @param typeFun The applied type.
+     * @param typeArg The type it is applied to.
+     * @return The type application, shared if both parts are ground.
+     */
+    static TypeApp app(Type typeFun, Type typeArg) {
+        if (!isGround(typeFun) || !isGround(typeArg)) {
+            return new TypeApp(typeFun, typeArg);
+        }
+
+        Key key = new Key(Key.APP, typeFun, typeArg);
+        ConcreteType known = TYPES.get(key);
+        return (TypeApp) (known != null ? known : intern(key, new TypeApp(typeFun, typeArg)));
+    }
+
+    /** @return the interned type for the key, which is the fresh one unless another thread was first. */
+    private static ConcreteType intern(Object key, ConcreteType fresh) {
+        // the fresh type only escapes if it wins, so it can be marked in advance
+        fresh.ground = true;
+        ConcreteType known = TYPES.putIfAbsent(key, fresh);
+        return known != null ? known : fresh;
+    }
+
+    /** The key of a compound ground type, comparing its interned parts by identity. */
+    private static final class Key {
+        private static final int FUN = 1;
+        private static final int APP = 2;
+
+        private final int kind;
+        private final Type left;
+        private final Type right;
+
+        private Key(int kind, Type left, Type right) {
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return this.kind == other.kind && this.left == other.left && this.right == other.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * this.kind + System.identityHashCode(this.left)) * 31 + System.identityHashCode(this.right);
+        }
+    }
+}
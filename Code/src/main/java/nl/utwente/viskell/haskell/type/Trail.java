@@ -0,0 +1,104 @@
+package nl.utwente.viskell.haskell.type;
+
+import java.util.ArrayDeque;
+
+/**
+ * A record of the changes made to types during a transactional unification, so they can be undone.
+ *
+ * Every mutable part of a type remembers its old state here before it changes,
+ * but only while a trail is open on the current thread. Trails nest: committing
+ * an inner trail hands its changes to the outer one, so they are undone when
+ * the outer one is rolled back.
+ *
+ * While any trail is open the union-find forest of type instances is not
+ * compressed, as rolling back only restores the links that were recorded.
+ */
+final class Trail {
+    /** The innermost open trail of every thread. */
+    private static final ThreadLocal<Trail> CURRENT = new ThreadLocal<>();
+
+    /** The number of open trails of all threads together. */
+    private static volatile int open = 0;
+
+    /** The trail that was open when this one began, or null. */
+    private final Trail outer;
+
+    /** The actions that undo the recorded changes, the latest first. */
+    private final ArrayDeque<Runnable> undos;
+
+    /** Whether this trail was committed or rolled back already. */
+    private boolean closed;
+
+    private Trail(Trail outer) {
+        this.outer = outer;
+        this.undos = new ArrayDeque<>();
+        this.closed = false;
+    }
+
+    /**
+     * Opens a new trail on the current thread, inside the one that is open already, if any.
+     * @return The new trail, which must be either committed or rolled back.
+     */
+    static Trail begin() {
+        Trail trail = new Trail(CURRENT.get());
+        CURRENT.set(trail);
+        synchronized (Trail.class) {
+            open++;
+        }
+        return trail;
+    }
+
+    /** @return whether a trail might be open, in which case shortcuts that can not be undone must be skipped. */
+    static boolean isOpen() {
+        return open > 0;
+    }
+
+    /**
+     * Records how to undo a change that is about to be made, if a trail is open on the current thread.
+     * @param undo Restores the state from before the change.
+     */
+    static void record(Runnable undo) {
+        if (open > 0) {
+            Trail trail = CURRENT.get();
+            if (trail != null) {
+                trail.undos.push(undo);
+            }
+        }
+    }
+
+    /** Keeps all recorded changes, as part of the outer trail if there is one. */
+    void commit() {
+        if (this.outer != null) {
+            // the outer trail undoes the oldest change last
+            while (!this.undos.isEmpty()) {
+                this.outer.undos.push(this.undos.removeLast());
+            }
+        }
+        this.close();
+    }
+
+    /** Undoes all recorded changes, in reverse order. */
+    void rollback() {
+        while (!this.undos.isEmpty()) {
+            this.undos.pop().run();
+        }
+        this.close();
+    }
+
+    /** Makes the outer trail the current one again. */
+    private void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        if (this.outer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(this.outer);
+        }
+        synchronized (Trail.class) {
+            open--;
+        }
+    }
+}
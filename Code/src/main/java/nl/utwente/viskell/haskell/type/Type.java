@@ -79,6 +79,11 @@ public abstract class Type {
     @Override
     public abstract String toString();
 
+    /** @return whether this type has no type variables left, apart from those instantiated to concrete types. */
+    public boolean isMonomorphic() {
+        return TypeScope.gatherAllTypeVarInsts(this).isEmpty();
+    }
+
     /** Ensures that this type stays maximal polymorphic by marking all internal type variables rigid */
     public void enforcePolymorphism() {
         for (TypeVar.TypeInstance tvi : TypeScope.gatherAllTypeVarInsts(this)) {
@@ -110,19 +115,7 @@ public abstract class Type {
      * @param The name of type constructor.
      */
     public final static TypeCon con(String name) {
-        if ("[]".equals(name)) {
-            return new ListTypeCon();
-        }
-        
-        if ("()".equals(name)) {
-            return new TupleTypeCon(0);
-        }
-        
-        if (name.startsWith("(,")) {
-            return new TupleTypeCon(name.length()-1);
-        }
-        
-        return new TypeCon(name);
+        return GroundTypes.con(name);
     }
 
     /**
@@ -133,7 +126,7 @@ public abstract class Type {
     public final static Type con(String name, Type... args) {
         Type t = Type.con(name);
         for (Type a : args) {
-            t = new TypeApp(t, a);
+            t = GroundTypes.app(t, a);
         }
 
         return t;
@@ -151,7 +144,7 @@ public abstract class Type {
         final int last = elems.length - 1;
         Type t = elems[last];
         for (int n = last - 1; n >= 0; n--) {
-            t = new FunType(elems[n], t);
+            t = GroundTypes.fun(elems[n], t);
         }
 
         return t;
@@ -168,7 +161,7 @@ public abstract class Type {
 
         Type t = elems[0];
         for (int n = 1; n < elems.length; n++) {
-            t = new TypeApp(t, elems[n]);
+            t = GroundTypes.app(t, elems[n]);
         }
 
         return t;
@@ -179,7 +172,7 @@ public abstract class Type {
      * @param the element type
      */
     public final static Type listOf(Type elem) {
-        return new TypeApp(new ListTypeCon(), elem);
+        return GroundTypes.app(Type.con("[]"), elem);
     }
 
     /**
@@ -187,9 +180,9 @@ public abstract class Type {
      * @param the list of element types
      */
     public final static Type tupleOf(Type... elems) {
-        Type t = new TupleTypeCon(elems.length);
+        Type t = Type.con(TupleTypeCon.tupleName(elems.length));
         for (Type e : elems) {
-            t = new TypeApp(t, e);
+            t = GroundTypes.app(t, e);
         }
 
         return t;
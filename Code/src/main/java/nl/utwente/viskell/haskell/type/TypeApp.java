@@ -41,6 +41,10 @@ public class TypeApp extends ConcreteType {
      * Remove all constraints from this type application, to be used only after all are satisfied.
      */
     protected void clearConstraints() {
+    	if (Trail.isOpen()) {
+    	    ConstraintSet saved = this.constraints;
+    	    Trail.record(() -> this.constraints = saved);
+    	}
     	this.constraints = new ConstraintSet();
     }
     
@@ -79,12 +83,21 @@ public class TypeApp extends ConcreteType {
     
     @Override
     public TypeApp getFresh(TypeScope scope) {
-        return new TypeApp(this.typeFun.getFresh(scope), this.typeArg.getFresh(scope));
+        if (this.ground) {
+            // without type variables there is nothing to refresh
+            return this;
+        }
+
+        return GroundTypes.app(this.typeFun.getFresh(scope), this.typeArg.getFresh(scope));
     }
 
     @Override
 	public Type getConcrete() {
-		return new TypeApp(this.typeFun.getConcrete(), this.typeArg.getConcrete());
+		if (this.ground) {
+			return this;
+		}
+
+		return GroundTypes.app(this.typeFun.getConcrete(), this.typeArg.getConcrete());
 	}
 
 	@Override
@@ -2,6 +2,7 @@ package nl.utwente.viskell.haskell.type;
 
 import nl.utwente.viskell.haskell.expr.Expression;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,6 +20,9 @@ public final class TypeChecker {
         TypeChecker.logger.setLevel(Level.WARNING);
         // Changing this to Level.INFO will show debug messages.
     }
+
+    /** The work stack of every thread, reused by all unifications. */
+    private static final ThreadLocal<WorkStack> work = ThreadLocal.withInitial(WorkStack::new);
     
     /**
      * Private constructor - methods in this class are static.
@@ -27,33 +31,101 @@ public final class TypeChecker {
     }
 
     public static void unify(final Expression context, final Type a, final Type b) throws HaskellTypeError {
-        TypeChecker.unify(context.toString(), a, b);
+        // the expression is only shown when there is an error
+        TypeChecker.unifyIn(context, a, b);
     }
     
     public static void unify(final String context, final Type a, final Type b) throws HaskellTypeError {
-        
-        TypeChecker.logger.info(String.format("Unifying types %s and %s for context %s", a, b, context));
+        TypeChecker.unifyIn(context, a, b);
+    }
+
+    /**
+     * Unifies two types, or leaves them exactly as they were if that fails.
+     * @param context The description of where the unification happens, for errors.
+     * @param a The first type.
+     * @param b The second type.
+     * @throws HaskellTypeError if the types can not be unified, after undoing all changes made to them.
+     */
+    public static void unifyAtomically(final String context, final Type a, final Type b) throws HaskellTypeError {
+        Trail trail = Trail.begin();
+        boolean unified = false;
+        try {
+            TypeChecker.unify(context, a, b);
+            unified = true;
+        } finally {
+            if (unified) {
+                trail.commit();
+            } else {
+                trail.rollback();
+            }
+        }
+    }
 
-        if (a.equals(b)) {
+    /**
+     * Checks whether two types can be unified, without changing them: all changes made by trying are undone.
+     * This avoids unifying fresh copies of the types just to throw them away.
+     * @param context The description of where the unification happens, for errors.
+     * @param a The first type.
+     * @param b The second type.
+     * @throws HaskellTypeError if the types can not be unified.
+     */
+    public static void trialUnify(final String context, final Type a, final Type b) throws HaskellTypeError {
+        Trail trail = Trail.begin();
+        try {
+            TypeChecker.unify(context, a, b);
+        } finally {
+            trail.rollback();
+        }
+    }
+
+    /**
+     * Unifies two types and all their parts, using a work stack instead of recursion.
+     * @param context The description of where the types come from, which is only turned into text for an error.
+     */
+    private static void unifyIn(final Object context, final Type a, final Type b) throws HaskellTypeError {
+        WorkStack work = TypeChecker.work.get();
+        int base = work.size;
+        try {
+            work.push(a, b);
+            while (work.size > base) {
+                Type y = work.pop();
+                Type x = work.pop();
+                TypeChecker.unifyStep(context, x, y, work);
+            }
+        } finally {
+            // after an error the remaining pairs are dropped
+            work.truncate(base);
+        }
+    }
+
+    /** Unifies two types at the top level, pushing the pairs of their parts that need unifying as well. */
+    private static void unifyStep(final Object context, final Type a, final Type b, final WorkStack work) throws HaskellTypeError {
+        if (TypeChecker.logger.isLoggable(Level.INFO)) {
+            TypeChecker.logger.info(String.format("Unifying types %s and %s for context %s", a, b, context));
+        }
+
+        if (a == b || a.equals(b)) {
             // for identical types unifying is trivial
+        } else if (GroundTypes.isGround(a) && GroundTypes.isGround(b)) {
+            // distinct interned ground types differ somewhere, and have no type variables to make them match
+            throw new HaskellTypeError(String.format("%s ⊥ %s in context of %s", a, b, context));
         } else if (a instanceof TypeVar) {
             TypeVar va = (TypeVar) a;
 
             // First, prevent ourselves from going into an infinite loop
             if (b.containsOccurenceOf(va)) {
-                TypeChecker.logger.info(String.format("Recursion in types %s and %s for context %s", a, b, context));
                 throw new HaskellTypeError(String.format("%s ∈ %s in context of %s", a, b, context));
             }
 
             if (va.hasConcreteInstance()) {
                 // if a type variable has been instantiated already then we can just unify b with a concrete type of a
-                TypeChecker.unify(context, va.getInstantiatedType(), b);
+                work.push(va.getInstantiatedType(), b);
             } else if (b instanceof TypeVar) {
                 TypeVar vb = (TypeVar) b;
                 
                 if (vb.hasConcreteInstance()) {
                     // with type variable b instantiated continue with unifying type variable a with the concrete type of b
-                    TypeChecker.unify(context, va, vb.getInstantiatedType());
+                    work.push(va, vb.getInstantiatedType());
                 } else {
                     // two plain type variable are unified by sharing the internal reference of (future) type instance   
                     vb.unifyWith(va);
@@ -68,31 +140,26 @@ public final class TypeChecker {
         } else if (b instanceof TypeVar && a instanceof ConcreteType) {
             // Example: we have to unify Int and α.
             // Same as above, but mirrored.
-            TypeChecker.unify(context, b, a);
+            work.push(b, a);
         } else if (a instanceof TypeCon && b instanceof TypeCon) {
-            final TypeCon ca = (TypeCon) a;
-            final TypeCon cb = (TypeCon) b;
             // unification of type constructor is just name equality
-            if (! ca.getName().equals(cb.getName()))
-            {
-                TypeChecker.logger.info(String.format("Mismatching TypeCon %s and %s for context %s", a, b, context));
+            if (! ((TypeCon) a).getName().equals(((TypeCon) b).getName())) {
                 throw new HaskellTypeError(String.format("%s ⊥ %s in context of %s", a, b, context));
             }
         } else if (a instanceof FunType && b instanceof FunType) {
-            // Unifying function types is pairwise unification of its argument and result. 
+            // Unifying function types is pairwise unification of its argument and result, the argument first.
             FunType fa = (FunType) a;
             FunType fb = (FunType) b;
-            TypeChecker.unify(context, fa.getArgument(), fb.getArgument());
-            TypeChecker.unify(context, fa.getResult(), fb.getResult());
+            work.push(fa.getResult(), fb.getResult());
+            work.push(fa.getArgument(), fb.getArgument());
         } else if (a instanceof TypeApp && b instanceof TypeApp) {
-            // Unifying type applications is pairwise unification of its typeFun and typeArg. 
+            // Unifying type applications is pairwise unification of its typeFun and typeArg, the typeFun first.
             TypeApp ta = (TypeApp) a;
             TypeApp tb = (TypeApp) b;
-            TypeChecker.unify(context, ta.getTypeFun(), tb.getTypeFun());
-            TypeChecker.unify(context, ta.getTypeArg(), tb.getTypeArg());
+            work.push(ta.getTypeArg(), tb.getTypeArg());
+            work.push(ta.getTypeFun(), tb.getTypeFun());
         } else {
             // Running out of things that can be unified, so bail out with a type error.
-            TypeChecker.logger.info(String.format("Given up to unify types %s and %s for context %s", a, b, context));
             throw new HaskellTypeError(String.format("%s ⊥ %s in context of %s", a, b, context));
         }
     }
@@ -102,10 +169,10 @@ public final class TypeChecker {
      * 
      * @param type A concrete type which is affected by the constraints
      * @param constraints The set of constraint that need to be satisfied.
-     * @param context the expression string to use as context in errors. 
+     * @param context the expression or description to use as context in errors, only turned into text for an error.
      * @throws HaskellTypeError if the constraints can no be satisfied by this type.
      */
-    protected static void satisfyConstraints(Type type, ConstraintSet constraints, String context) throws HaskellTypeError {
+    protected static void satisfyConstraints(Type type, ConstraintSet constraints, Object context) throws HaskellTypeError {
         if (! constraints.hasConstraints()) {
             // empty constraints are always satisfied.
             return;
@@ -130,8 +197,13 @@ public final class TypeChecker {
             }
         } else if (type instanceof TypeApp) {
             TypeApp ta = (TypeApp)type;
-            List<Type> chain = ta.asFlattenedAppChain();
-            Type ctype = chain.remove(0);
+            // find the head of the type application chain, without building the chain
+            Type ctype = ta;
+            int arity = 0;
+            while (ctype instanceof TypeApp) {
+                ctype = ((TypeApp)ctype).getTypeFun();
+                arity++;
+            }
             
             // use the instantiated type instead, if available.
             if (ctype instanceof TypeVar && ((TypeVar)ctype).hasConcreteInstance()) {
@@ -142,11 +214,12 @@ public final class TypeChecker {
             if (ctype instanceof TypeCon) {
                 TypeCon tc = (TypeCon)ctype;
                 if (constraints.allConstraintsMatch(tc)) {
-                    // also for all type arguments add implied constraint as needed
-                    int arity = chain.size();
+                    // also for all type arguments add implied constraint as needed, the outermost is the last argument
                     List<ConstraintSet> argConstraints = constraints.getImpliedArgConstraints(tc, arity);
-                    for (int i = 0; i < arity; i++) {
-                        TypeChecker.satisfyConstraints(chain.get(i), argConstraints.get(i), context);
+                    Type app = ta;
+                    for (int i = arity - 1; i >= 0; i--) {
+                        TypeChecker.satisfyConstraints(((TypeApp)app).getTypeArg(), argConstraints.get(i), context);
+                        app = ((TypeApp)app).getTypeFun();
                     }
                     // all satisfied, done
                     return;
@@ -161,8 +234,38 @@ public final class TypeChecker {
         }
         
         // for now, constraining other types will fail.
-        TypeChecker.logger.info(String.format("Unable to unify types %s with constraints %s for context %s", type, constraints, context));
         throw new HaskellTypeError(String.format("%s ∉ constraints of %s in context of %s", type, constraints, context));
     }
 
+    /** A growable stack of pairs of types that still need unifying. */
+    private static final class WorkStack {
+        /** The pairs, flattened. */
+        private Type[] items = new Type[32];
+
+        /** The number of types on the stack. */
+        private int size = 0;
+
+        /** Pushes a pair of types, which is popped in reverse order. */
+        private void push(Type a, Type b) {
+            if (this.size + 2 > this.items.length) {
+                this.items = Arrays.copyOf(this.items, this.items.length * 2);
+            }
+            this.items[this.size++] = a;
+            this.items[this.size++] = b;
+        }
+
+        /** @return the top type, which is removed. */
+        private Type pop() {
+            Type type = this.items[--this.size];
+            this.items[this.size] = null;
+            return type;
+        }
+
+        /** Removes everything above a size. */
+        private void truncate(int size) {
+            while (this.size > size) {
+                this.items[--this.size] = null;
+            }
+        }
+    }
 }
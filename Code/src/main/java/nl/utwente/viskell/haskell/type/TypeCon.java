@@ -29,7 +29,8 @@ public class TypeCon extends ConcreteType {
 
     @Override
 	public Type getConcrete() {
-    	return Type.con(this.name);
+    	// type constructors are interned, so this is the only instance
+    	return this;
 	}
 
 	@Override
@@ -39,7 +40,7 @@ public class TypeCon extends ConcreteType {
 
     @Override
     public boolean equals(Object other) {
-        return other instanceof TypeCon && this.name.equals(((TypeCon)other).getName());
+        return this == other || other instanceof TypeCon && this.name.equals(((TypeCon)other).getName());
     }
 
     @Override
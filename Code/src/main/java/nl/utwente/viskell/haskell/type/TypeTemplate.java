@@ -0,0 +1,177 @@
+package nl.utwente.viskell.haskell.type;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A type compiled for making fresh copies of it quickly, as getFresh would.
+ *
+ * The parts of the type without type variables are interned once and shared
+ * by all copies. The type variables are numbered, so a copy fills a small
+ * array with a fresh variable for each of them and only rebuilds the parts
+ * around them, without the maps of a TypeScope.
+ *
+ * The template reflects the type at the time it was compiled, so it is meant
+ * for types that no longer change, such as the signatures of library functions.
+ */
+public final class TypeTemplate {
+    /** The root of the compiled type. */
+    private final Node root;
+
+    /** The type variables of the type, in the order of their numbers. */
+    private final TypeVar[] vars;
+
+    private TypeTemplate(Node root, TypeVar[] vars) {
+        this.root = root;
+        this.vars = vars;
+    }
+
+    /**
+     * @param type The type to compile.
+     * @return The template for fresh copies of the type.
+     */
+    public static TypeTemplate of(Type type) {
+        List<TypeVar> vars = new ArrayList<>();
+        Node root = compile(type, new IdentityHashMap<>(), vars);
+        return new TypeTemplate(root, vars.toArray(new TypeVar[vars.size()]));
+    }
+
+    /**
+     * @return An equivalent copy of the type, using fresh type variables.
+     */
+    public Type instantiate() {
+        if (this.vars.length == 0) {
+            return this.root.build(null);
+        }
+
+        Type[] fresh = new Type[this.vars.length];
+        for (int i = 0; i < fresh.length; i++) {
+            fresh[i] = this.vars[i].freshCopy();
+        }
+        return this.root.build(fresh);
+    }
+
+    /**
+     * @param type The part of the type to compile.
+     * @param numbers The number of every type variable seen so far, by its instance.
+     * @param vars The type variables seen so far, in order of their numbers.
+     * @return The compiled part.
+     */
+    private static Node compile(Type type, IdentityHashMap<TypeVar.TypeInstance, Integer> numbers, List<TypeVar> vars) {
+        if (type instanceof TypeVar) {
+            TypeVar var = (TypeVar) type;
+            if (var.hasConcreteInstance()) {
+                return compile(var.getInstantiatedType(), numbers, vars);
+            } else if (var.isRigid()) {
+                // rigid type variables are kept as they are, see TypeVar.pickFreshTypeVarInstance
+                return new Constant(var);
+            }
+
+            Integer number = numbers.get(var.getInstance());
+            if (number == null) {
+                number = vars.size();
+                numbers.put(var.getInstance(), number);
+                vars.add(var);
+            }
+            return new Variable(number);
+        }
+
+        Node left;
+        Node right;
+        if (type instanceof FunType) {
+            left = compile(((FunType) type).getArgument(), numbers, vars);
+            right = compile(((FunType) type).getResult(), numbers, vars);
+        } else if (type instanceof TypeApp) {
+            left = compile(((TypeApp) type).getTypeFun(), numbers, vars);
+            right = compile(((TypeApp) type).getTypeArg(), numbers, vars);
+        } else {
+            return new Constant(type.getConcrete());
+        }
+
+        if (left.isGround() && right.isGround()) {
+            // a closed part, which is interned to share it
+            return new Constant(type.getConcrete());
+        }
+        return type instanceof FunType ? new Function(left, right) : new Application(left, right);
+    }
+
+    /** A compiled part of a type. */
+    private static abstract class Node {
+        /**
+         * @param fresh The fresh type variables, by number.
+         * @return The copy of this part.
+         */
+        abstract Type build(Type[] fresh);
+
+        /** @return whether this part is an interned type without type variables. */
+        boolean isGround() {
+            return false;
+        }
+    }
+
+    /** A part that is shared by all copies, either a ground type or a rigid type variable. */
+    private static final class Constant extends Node {
+        private final Type type;
+
+        private Constant(Type type) {
+            this.type = type;
+        }
+
+        @Override
+        Type build(Type[] fresh) {
+            return this.type;
+        }
+
+        @Override
+        boolean isGround() {
+            return GroundTypes.isGround(this.type);
+        }
+    }
+
+    /** A type variable, which is fresh in every copy. */
+    private static final class Variable extends Node {
+        private final int number;
+
+        private Variable(int number) {
+            this.number = number;
+        }
+
+        @Override
+        Type build(Type[] fresh) {
+            return fresh[this.number];
+        }
+    }
+
+    /** A function type with type variables. */
+    private static final class Function extends Node {
+        private final Node argument;
+        private final Node result;
+
+        private Function(Node argument, Node result) {
+            this.argument = argument;
+            this.result = result;
+        }
+
+        @Override
+        Type build(Type[] fresh) {
+            return new FunType(this.argument.build(fresh), this.result.build(fresh));
+        }
+    }
+
+    /** A type application with type variables. */
+    private static final class Application extends Node {
+        private final Node typeFun;
+        private final Node typeArg;
+
+        private Application(Node typeFun, Node typeArg) {
+            this.typeFun = typeFun;
+            this.typeArg = typeArg;
+        }
+
+        @Override
+        Type build(Type[] fresh) {
+            return new TypeApp(this.typeFun.build(fresh), this.typeArg.build(fresh));
+        }
+    }
+}
@@ -1,11 +1,8 @@
 package nl.utwente.viskell.haskell.type;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 import com.google.common.collect.ImmutableList;
 
@@ -17,17 +14,33 @@ public class TypeVar extends Type {
 
     /**
      * An optional mutable reference to a concrete type.
+     *
+     * Unified type variables share a single instance, which is kept in a
+     * union-find forest: an instance that was merged into another points to its
+     * parent, and only the root of a tree holds the valid state. Merging links the
+     * root of the lower tree below the other, and finding the root shortens the
+     * path it walked, so both take nearly constant time.
      */
     protected final static class TypeInstance {
+        /**
+         * The instance this one was merged into, or null if this is a root.
+         */
+        private TypeInstance parent;
+
+        /**
+         * An upper bound of the height of the tree below this root.
+         */
+        private int rank;
+
         /**
          * The textual representation of the type variable.
          */
-        private final String name;
+        private String name;
 
         /**
          * Whether this type variable was created internally in typechecking process, and preferably should not be shown to the user.
          */
-        private final boolean internal;
+        private boolean internal;
 
         /**
          * Whether this type variable is rigid (meaning that it can't be unified with a more specific or concrete type)
@@ -48,13 +61,6 @@ public class TypeVar extends Type {
          * List of type applications that needs their constraints checked once this variable is instantiated.
          */
         private List<TypeApp> associatedTypeApps;
-        
-        /**
-         * Internal List of all type variables that refer to this instance.
-         * this list contains the creating type variable as well as the variables have unified with this.
-         * It is using WeakReference to avoid holding on to too much old type variables. 
-         */
-        private LinkedList<WeakReference<TypeVar>> unifiedVars;
 
         /**
          * @param name The textual representation of the type variable.
@@ -62,17 +68,50 @@ public class TypeVar extends Type {
          * @param type The concrete instance of this type, might be null.
          * @param constraints The set of constraints for this type.
          */
-        private TypeInstance(TypeVar creator, String name, boolean internal, boolean isRigid, ConcreteType type, final ConstraintSet constraints) {
+        private TypeInstance(String name, boolean internal, boolean isRigid, ConcreteType type, final ConstraintSet constraints) {
+            this.parent = null;
+            this.rank = 0;
             this.name = name;
             this.internal = internal;
             this.isRigid = isRigid;
             this.type = type;
             this.constraints = constraints;
-            this.unifiedVars = new LinkedList<>();
-            this.unifiedVars.add(new WeakReference<>(creator));
             this.associatedTypeApps = new ArrayList<>();
         }
 
+        /**
+         * @return The root of the tree this instance is in, after pointing every instance on the way directly to it.
+         */
+        private TypeInstance find() {
+            TypeInstance root = this;
+            while (root.parent != null) {
+                root = root.parent;
+            }
+
+            if (Trail.isOpen()) {
+                // a compressed path might skip a link that gets rolled back
+                return root;
+            }
+
+            TypeInstance node = this;
+            while (node.parent != null) {
+                TypeInstance next = node.parent;
+                node.parent = root;
+                node = next;
+            }
+
+            return root;
+        }
+
+        /**
+         * Records the current state in the open trail, if any, before it changes.
+         */
+        private void remember() {
+            if (Trail.isOpen()) {
+                Trail.record(new Saved(this));
+            }
+        }
+
         
         /**
          *  Make this type variable rigid
@@ -83,6 +122,7 @@ public class TypeVar extends Type {
                 throw new IllegalStateException("Type instance already set");
             }
 
+            this.remember();
             this.isRigid = true;
         }
         
@@ -119,6 +159,7 @@ public class TypeVar extends Type {
                 throw new HaskellTypeError("Can not unify a rigid type variable " + this.name + " with concrete type " + ctype.prettyPrint());
             }
 
+            this.remember();
             this.type = ctype;
             
             // now the type variable is instantiated we need check all deferred typeapp constraints
@@ -150,21 +191,75 @@ public class TypeVar extends Type {
                 throw new HaskellTypeError("Can not add extra constraints to a rigid type variable " + this.name);
             }
             
+            this.remember();
+            other.remember();
             other.constraints.mergeConstraintsWith(this.constraints);
             other.associatedTypeApps.addAll(this.associatedTypeApps);
-            
-            other.unifiedVars.addAll(this.unifiedVars);
-            // Go through all type variable associated with both type instances, to make sure all of them are unified to the same instance.
-            for (ListIterator<WeakReference<TypeVar>> iter = this.unifiedVars.listIterator(); iter.hasNext();) {
-                TypeVar referer = iter.next().get();
-                if (referer == null) {
-                    iter.remove();
-                } else {
-                    referer.instance = other;
+
+            // the merged state is that of the other instance, but the lower tree goes below the higher one
+            if (this.rank > other.rank) {
+                this.takeStateOf(other);
+                other.parent = this;
+            } else {
+                this.parent = other;
+                if (this.rank == other.rank) {
+                    other.rank++;
                 }
             }
         }
 
+        /**
+         * Copies all state of another root, so this root can take its place.
+         * @param other The root that is going to be linked below this one.
+         */
+        private void takeStateOf(TypeInstance other) {
+            this.name = other.name;
+            this.internal = other.internal;
+            this.isRigid = other.isRigid;
+            this.type = other.type;
+            this.constraints = other.constraints;
+            this.associatedTypeApps = other.associatedTypeApps;
+        }
+
+        /** The state of an instance at some point, to restore when a trail is rolled back. */
+        private static final class Saved implements Runnable {
+            private final TypeInstance instance;
+            private final TypeInstance parent;
+            private final int rank;
+            private final String name;
+            private final boolean internal;
+            private final boolean isRigid;
+            private final ConcreteType type;
+            private final ConstraintSet constraints;
+            private final List<TypeApp> associatedTypeApps;
+
+            private Saved(TypeInstance instance) {
+                this.instance = instance;
+                this.parent = instance.parent;
+                this.rank = instance.rank;
+                this.name = instance.name;
+                this.internal = instance.internal;
+                this.isRigid = instance.isRigid;
+                this.type = instance.type;
+                // the constraint set records its own changes
+                this.constraints = instance.constraints;
+                List<TypeApp> apps = instance.associatedTypeApps;
+                this.associatedTypeApps = apps instanceof ImmutableList ? apps : new ArrayList<>(apps);
+            }
+
+            @Override
+            public void run() {
+                this.instance.parent = this.parent;
+                this.instance.rank = this.rank;
+                this.instance.name = this.name;
+                this.instance.internal = this.internal;
+                this.instance.isRigid = this.isRigid;
+                this.instance.type = this.type;
+                this.instance.constraints = this.constraints;
+                this.instance.associatedTypeApps = this.associatedTypeApps;
+            }
+        }
+
         /**
          * @return The textual representation of the type variable.
          */
@@ -192,9 +287,9 @@ public class TypeVar extends Type {
     }
 
     /**
-     * The reference to the potential concrete instance for this type.
+     * The reference to the potential concrete instance for this type, which might have been merged into another since.
      */
-    private TypeInstance instance;
+    private TypeInstance node;
 
     /**
      * @param name The textual representation of the type variable.
@@ -215,21 +310,32 @@ public class TypeVar extends Type {
      * @param instance The concrete instance of this type, might be null.
      */
     private TypeVar(final String name, final boolean internal, final boolean isRigid, final ConstraintSet constraints, final ConcreteType type) {
-        this.instance = new TypeInstance(this, name.toLowerCase(), internal, isRigid, type, constraints);
+        this.node = new TypeInstance(name.toLowerCase(), internal, isRigid, type, constraints);
+    }
+
+    /**
+     * @return The instance shared by all type variables unified with this one.
+     */
+    private TypeInstance instance() {
+        TypeInstance root = this.node.find();
+        if (!Trail.isOpen()) {
+            this.node = root;
+        }
+        return root;
     }
 
     /**
      * @return The name of this variable type.
      */
     public final String getName() {
-        return this.instance.getName();
+        return this.instance().getName();
     }
 
     /**
      * @return Whether this type variable has been instantiated with a concrete type.
      */
     public final boolean hasConcreteInstance() {
-        return this.instance.isPresent();
+        return this.instance().isPresent();
     }
 
     /**
@@ -237,7 +343,7 @@ public class TypeVar extends Type {
      * @return The concrete type this type variable has been instantiated with.
      */
     public final ConcreteType getInstantiatedType() {
-        return this.instance.get();
+        return this.instance().get();
     }
 
     /*
@@ -246,7 +352,7 @@ public class TypeVar extends Type {
     * @param The concrete type this type variable is unified with
     */
     public final void setConcreteInstance(ConcreteType type) throws HaskellTypeError {
-        this.instance.set(type);
+        this.instance().set(type);
     }
 
     /**
@@ -255,12 +361,14 @@ public class TypeVar extends Type {
      * @throws HaskellTypeError if the combined constraint set of the type variables is not satisfiable. 
      */
     public final void unifyWith(TypeVar other) throws HaskellTypeError {
-        if (this.instance.isRigid) {
-            other.instance.unifyWith(this.instance);
-        } else if (other.instance.isRigid || this.instance.internal) {
-            this.instance.unifyWith(other.instance);
+        TypeInstance mine = this.instance();
+        TypeInstance theirs = other.instance();
+        if (mine.isRigid) {
+            theirs.unifyWith(mine);
+        } else if (theirs.isRigid || mine.internal) {
+            mine.unifyWith(theirs);
         } else {
-            other.instance.unifyWith(this.instance);
+            theirs.unifyWith(mine);
         }
     }
 
@@ -268,7 +376,7 @@ public class TypeVar extends Type {
      * @return The set of type class constraints associated with this type variable
      */
     public ConstraintSet getConstraints() {
-        return this.instance.constraints;
+        return this.instance().constraints;
     }
 
     /**
@@ -276,7 +384,7 @@ public class TypeVar extends Type {
      * @param typeClass to be added to this type variable
      */
     protected void introduceConstraint(TypeClass typeClass) {
-        this.instance.constraints.addExtraConstraint(typeClass);
+        this.instance().constraints.addExtraConstraint(typeClass);
     }
 
     /**
@@ -284,7 +392,7 @@ public class TypeVar extends Type {
      * @param constraints set to be added to this type variable
      */
     protected void introduceConstrainst(ConstraintSet constraints) {
-        this.instance.constraints.addExtraConstraint(constraints);
+        this.instance().constraints.addExtraConstraint(constraints);
     }
 
     /**
@@ -292,20 +400,23 @@ public class TypeVar extends Type {
      * @param typeapp to add
      */
 	protected void addConstrainedTypeApp(TypeApp typeapp) {
-		if (! this.instance.associatedTypeApps.contains(typeapp)) {
-			this.instance.associatedTypeApps.add(typeapp);
+		TypeInstance instance = this.instance();
+		if (! instance.associatedTypeApps.contains(typeapp)) {
+			instance.remember();
+			instance.associatedTypeApps.add(typeapp);
 		}
 	}
 
     @Override
     public final String prettyPrint(final int fixity) {
-        return this.instance.prettyPrint(fixity);
+        return this.instance().prettyPrint(fixity);
     }
 
     @Override
     protected String prettyPrintAppChain(int fixity, List<Type> args) {
-        if (this.instance.isPresent()) {
-            return this.instance.get().prettyPrintAppChain(fixity, args);
+        TypeInstance instance = this.instance();
+        if (instance.isPresent()) {
+            return instance.get().prettyPrintAppChain(fixity, args);
         }
         
         return super.prettyPrintAppChain(fixity, args);
@@ -313,8 +424,9 @@ public class TypeVar extends Type {
 
     @Override
     public Type getFresh(TypeScope scope) {
-        if (this.instance.isPresent()) {
-            return this.instance.get().getFresh(scope);
+        TypeInstance instance = this.instance();
+        if (instance.isPresent()) {
+            return instance.get().getFresh(scope);
         }
 
         return scope.pickFreshTypeVar(this);
@@ -326,24 +438,45 @@ public class TypeVar extends Type {
      * @return A refreshed type variable.
      */
     protected TypeVar pickFreshTypeVarInstance(IdentityHashMap<TypeVar.TypeInstance, TypeVar> staleToFresh) {
-        if (staleToFresh.containsKey(this.instance)) {
-            return staleToFresh.get(this.instance);
+        TypeInstance instance = this.instance();
+        if (staleToFresh.containsKey(instance)) {
+            return staleToFresh.get(instance);
         }
         
-        if (this.instance.isRigid) {
+        if (instance.isRigid) {
             //FIXME this is a ugly workaround to make to rigid typevars unify with fresh copies of themselves
             //TODO remove this special case once type scoping is dealt with properly for whole lambdas
-            this.instance.unifiedVars = new LinkedList<>();
-            this.instance.unifiedVars.add(new WeakReference<>(this));
             return this;
         }
 
-        TypeVar fresh = new TypeVar(this.instance.name, this.instance.internal, this.instance.isRigid, this.instance.constraints.clone(), null);
-        staleToFresh.put(this.instance, fresh);
+        TypeVar fresh = this.freshCopy();
+        staleToFresh.put(instance, fresh);
         return fresh;
        
     }
 
+    /**
+     * @return A new type variable with the same name and a copy of the constraints, but not unified with this one.
+     */
+    TypeVar freshCopy() {
+        TypeInstance instance = this.instance();
+        return new TypeVar(instance.name, instance.internal, instance.isRigid, instance.constraints.clone(), null);
+    }
+
+    /**
+     * @return The instance shared by all type variables unified with this one, to tell them apart from others.
+     */
+    TypeInstance getInstance() {
+        return this.instance();
+    }
+
+    /**
+     * @return Whether this type variable is rigid, so that a fresh copy of a type keeps it as it is.
+     */
+    boolean isRigid() {
+        return this.instance().isRigid;
+    }
+
     @Override
 	public Type getConcrete() {
     	if (this.hasConcreteInstance()) {
@@ -356,23 +489,25 @@ public class TypeVar extends Type {
 	@Override
     public boolean containsOccurenceOf(TypeVar tvar) {
         // If type variable share the same instance then they have been unified to a single one.
-        if (this.instance == tvar.instance) {
+        TypeInstance instance = this.instance();
+        if (instance == tvar.instance()) {
             return true;
         }
 
-        if (!this.instance.isPresent()) {
+        if (!instance.isPresent()) {
             return false;
         }
 
-        return this.instance.get().containsOccurenceOf(tvar);
+        return instance.get().containsOccurenceOf(tvar);
     }
 
     @Override
     public final String toString() {
-        String constr = this.instance.constraints.toString();
-        String fmt = this.instance.isRigid ? "forall %s.(%s)%s" : "%s(%s)%s";
-        String tmp = String.format(fmt, this.getName(), Integer.toHexString(this.instance.hashCode()), constr);
-        return this.instance.isPresent() ? tmp + ":" + this.instance.get().toString() : tmp;
+        TypeInstance instance = this.instance();
+        String constr = instance.constraints.toString();
+        String fmt = instance.isRigid ? "forall %s.(%s)%s" : "%s(%s)%s";
+        String tmp = String.format(fmt, this.getName(), Integer.toHexString(instance.hashCode()), constr);
+        return instance.isPresent() ? tmp + ":" + instance.get().toString() : tmp;
     }
 
     /**
@@ -391,7 +526,7 @@ public class TypeVar extends Type {
         }
 
         TypeVar other = (TypeVar) obj;
-        return this.instance == other.instance;
+        return this.instance() == other.instance();
     }
 
 }
@@ -0,0 +1,18 @@
+package nl.utwente.viskell.trace;
+
+/**
+ * Begins the spans of the application, each of which records an event when it is committed.
+ */
+interface Recorder {
+    /** @see Trace#propagation(Object, boolean) */
+    Span propagation(Object block, boolean finalPhase);
+
+    /** @see Trace#refresh(Object) */
+    Span refresh(Object block);
+
+    /** @see Trace#unification(Object) */
+    Span unification(Object context);
+
+    /** @see Trace#ghciRequest(String, String, Object, long) */
+    Span ghciRequest(String expr, String priority, Object requester, long queueTime);
+}
@@ -0,0 +1,12 @@
+package nl.utwente.viskell.trace;
+
+/**
+ * A piece of work that is being recorded, from when it was begun until it is committed.
+ */
+public interface Span {
+    /** A span that records nothing, used when the Flight Recorder is not available. */
+    Span NONE = () -> {};
+
+    /** Ends the span, and records it if the Flight Recorder wants it. */
+    void commit();
+}
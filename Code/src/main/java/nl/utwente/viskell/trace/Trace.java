@@ -0,0 +1,74 @@
+package nl.utwente.viskell.trace;
+
+/**
+ * Begins the Flight Recorder events of the application.
+ *
+ * The events are in a separate source directory, which is only compiled when
+ * building on a Java that has the Flight Recorder API, so the rest of the
+ * application still builds for Java 8. They are loaded by name, and when they
+ * are missing or the running Java lacks the API the spans record nothing.
+ * Blocks and requesters are identified by their class and hash code, the
+ * latter of which is also the id used when saving blocks.
+ */
+public final class Trace {
+    /** The name of the recorder that creates the events. */
+    private static final String RECORDER_CLASS = "nl.utwente.viskell.trace.FlightRecorder";
+
+    /** The recorder that creates the events, or null if there are none. */
+    private static final Recorder RECORDER = load();
+
+    private Trace() {
+        // methods in this class are static
+    }
+
+    /** @return the recorder, if both it and the Flight Recorder API are available. */
+    private static Recorder load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Begins the handling of connection changes by a block.
+     * @param block The block handling the changes.
+     * @param finalPhase Whether this is the final phase of the propagation.
+     * @return The span to commit when the block is done.
+     */
+    public static Span propagation(Object block, boolean finalPhase) {
+        return RECORDER == null ? Span.NONE : RECORDER.propagation(block, finalPhase);
+    }
+
+    /**
+     * Begins the refresh of the visual state of a block, on the JavaFX thread.
+     * @param block The block that is refreshed.
+     * @return The span to commit when the refresh is done.
+     */
+    public static Span refresh(Object block) {
+        return RECORDER == null ? Span.NONE : RECORDER.refresh(block);
+    }
+
+    /**
+     * Begins the type checking of a connection or of the anchors of a block,
+     * including all the unifications that takes.
+     * @param context The connection or block that is type checked.
+     * @return The span to commit when the type checking is done.
+     */
+    public static Span unification(Object context) {
+        return RECORDER == null ? Span.NONE : RECORDER.unification(context);
+    }
+
+    /**
+     * Begins the evaluation of a request in ghci.
+     * @param expr The Haskell code of the request.
+     * @param priority The lane of the work queue the request was in.
+     * @param requester The object the request is for, or null.
+     * @param queueTime How long the request waited in the work queue, in nanoseconds.
+     * @return The span to commit when the result is there.
+     */
+    public static Span ghciRequest(String expr, String priority, Object requester, long queueTime) {
+        return RECORDER == null ? Span.NONE : RECORDER.ghciRequest(expr, priority, requester, queueTime);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Contains the Flight Recorder events that show where the time of the
+ * application goes, in type checking, evaluation or rendering.
+ */
+package nl.utwente.viskell.trace;
@@ -14,6 +14,7 @@ import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import nl.utwente.viskell.ghcj.GhciSession;
 import nl.utwente.viskell.ghcj.HaskellException;
+import nl.utwente.viskell.ghcj.Metrics;
 
 /**
  * Main application class for the GUI.
@@ -31,6 +32,7 @@ public class Main extends Application {
 
         Font.loadFont(this.getClass().getResourceAsStream("/ui/fonts/titillium.otf"), 20);
 
+        Metrics.get().export();
         GhciSession ghci = new GhciSession();
         ghci.startAsync();
         
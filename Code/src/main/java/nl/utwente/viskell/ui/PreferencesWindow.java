@@ -1,6 +1,8 @@
 package nl.utwente.viskell.ui;
 
 import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -23,6 +25,8 @@ public class PreferencesWindow extends BorderPane implements ComponentLoader {
     private Preferences preferences;
 
     @FXML private ComboBox<GhciSession.Backend> ghci;
+    @FXML private ComboBox<Integer> ghciPool;
+    @FXML private ComboBox<GhciSession.Mode> ghciMode;
     @FXML private ComboBox<String> background;
     @FXML private ComboBox<String> theme;
     @FXML protected CheckBox debugOverlay;
@@ -47,6 +51,20 @@ public class PreferencesWindow extends BorderPane implements ComponentLoader {
             overlay.getMainPane().restartBackend();
         });
         
+        ghciPool.getItems().setAll(IntStream.rangeClosed(1, Runtime.getRuntime().availableProcessors()).boxed().collect(Collectors.toList()));
+        ghciPool.getSelectionModel().select(Integer.valueOf(GhciSession.pickPoolSize()));
+        ghciPool.valueProperty().addListener(event -> {
+            preferences.putInt("ghciPool", ghciPool.getValue());
+            overlay.getMainPane().restartBackend();
+        });
+        
+        ghciMode.getItems().setAll(GhciSession.getModes());
+        ghciMode.getSelectionModel().select(GhciSession.pickMode());
+        ghciMode.valueProperty().addListener(event -> {
+            preferences.put("ghciMode", ghciMode.getValue().toString());
+            overlay.getMainPane().restartBackend();
+        });
+        
         background.getItems().setAll(ImmutableList.of("/ui/grid.png", "/ui/light_grid.png", "/ui/white.png"));
         background.getSelectionModel().select(preferences.get("background", "/ui/grid.png"));
         background.valueProperty().addListener(event -> {
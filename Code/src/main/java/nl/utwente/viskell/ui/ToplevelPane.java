@@ -112,15 +112,17 @@ public class ToplevelPane extends Region implements BlockContainer {
     }
 
     /**
-     * Terminate the current GhciSession, if any, then start a new one.
-     * Waits for the old session to end, but not for the new session to start.
+     * Start a new GhciSession, then terminate the current one in the background.
+     * The new session starts on the standby evaluator, so it is usable right away.
+     * The cached evaluation results go with the old session.
      */
     public void restartBackend() {
-        ghci.stopAsync();
-        ghci.awaitTerminated();
+        GhciSession old = ghci;
 
         ghci = new GhciSession();
         ghci.startAsync();
+
+        old.stopAsync();
     }
 
     public void addBlock(Block block) {
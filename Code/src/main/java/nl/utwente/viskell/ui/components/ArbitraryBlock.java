@@ -1,6 +1,7 @@
 package nl.utwente.viskell.ui.components;
 
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -21,6 +22,9 @@ public class ArbitraryBlock extends ValueBlock {
     
     /** The last type a for which a value has been generated, or empty is this block has no value. */
     private Optional<Type> lastGenType;
+
+    /** The generation of which the value is to be shown, values of older generations are stale. */
+    private Object shownResult;
     
     /**
      * Constructs a new ArbitraryBlock
@@ -37,6 +41,7 @@ public class ArbitraryBlock extends ValueBlock {
     private void getNextValue(int seed, boolean fromClick) {
         Type outputType = this.output.getType(Optional.empty());
         if (! this.output.hasConnection()) {
+            this.shownResult = null;
             this.setValue("??");
             this.lastGenType = Optional.empty();
             return;
@@ -45,6 +50,7 @@ public class ArbitraryBlock extends ValueBlock {
         if (outputType instanceof TypeVar) {
             TypeVar tv = (TypeVar)outputType;    
             if (!(tv.hasConcreteInstance() || tv.getConstraints().count() > 1)) {
+                this.shownResult = null;
                 this.setValue("???");
                 this.lastGenType = Optional.empty();
                 return;
@@ -56,7 +62,7 @@ public class ArbitraryBlock extends ValueBlock {
         
         if (this.lastGenType.isPresent() && !fromClick) {
             try {
-                TypeChecker.unify("arbitrary type changed", this.lastGenType.get().getFresh(), type.getFresh());
+                TypeChecker.trialUnify("arbitrary type changed", this.lastGenType.get(), type);
                 // no incompatible type change, keep current value
                 return;
             } catch (HaskellTypeError e) {
@@ -65,6 +71,7 @@ public class ArbitraryBlock extends ValueBlock {
         }
        
         
+        this.shownResult = null;
         this.setValue("???");
         this.lastGenType = Optional.empty();
 
@@ -84,13 +91,17 @@ public class ArbitraryBlock extends ValueBlock {
         GhciSession ghci = this.getToplevel().getGhciSession();
         int genOffset = 2 + Math.abs(seed) % 7;
         String haskellType = type.prettyPrint(10);
-        ListenableFuture<String> result = ghci.pullRaw("fmap (!!" + genOffset + ") $ sample' (arbitrary :: Gen " + haskellType + ")");
+        ListenableFuture<String> result = ghci.pullRaw(this, "fmap (!!" + genOffset + ") $ sample' (arbitrary :: Gen " + haskellType + ")");
+        this.shownResult = result;
 
         Futures.addCallback(result, new FutureCallback<String>() {
             public void onSuccess(String s) {
                 // Can't call setOutput directly - this may not be JavaFX app thread.
                 // Instead, schedule setting the output.
                 Platform.runLater(() -> {
+                    if (result != ArbitraryBlock.this.shownResult) {
+                        return; // a newer value was asked for in the meantime
+                    }
                     ArbitraryBlock.this.setValue(s);
                     // propagate the new generated value
                     ArbitraryBlock.this.initiateConnectionChanges();
@@ -98,7 +109,14 @@ public class ArbitraryBlock extends ValueBlock {
             }
 
             public void onFailure(Throwable throwable) {
-                Platform.runLater(() -> ArbitraryBlock.this.setValue("..."));
+                if (throwable instanceof CancellationException) {
+                    return; // superseded by a newer value
+                }
+                Platform.runLater(() -> {
+                    if (result == ArbitraryBlock.this.shownResult) {
+                        ArbitraryBlock.this.setValue("...");
+                    }
+                });
             }
         });
     }
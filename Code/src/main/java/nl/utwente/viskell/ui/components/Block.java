@@ -18,6 +18,8 @@ import javafx.geometry.Point2D;
 import javafx.scene.layout.StackPane;
 import nl.utwente.viskell.haskell.expr.Expression;
 import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.trace.Span;
+import nl.utwente.viskell.trace.Trace;
 import nl.utwente.viskell.ui.BlockContainer;
 import nl.utwente.viskell.ui.CircleMenu;
 import nl.utwente.viskell.ui.ComponentLoader;
@@ -138,7 +140,9 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
             return; // refresh anchor types in each block only once
         }
         this.freshAnchorTypes = true;
+        Span span = Trace.unification(this);
         this.refreshAnchorTypes();
+        span.commit();
 
         this.inValidContext = this.checkValidInCurrentContainer();
         if (this.inValidContext) {
@@ -164,6 +168,7 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
             return; // avoid doing extra work and infinite recursion
         }
 
+        Span span = Trace.propagation(this, finalPhase);
         if (! finalPhase) {
             // in first phase ensure that anchor types are refreshed
             this.prepareConnectionChanges();
@@ -187,8 +192,14 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
         
         if (finalPhase) {
             // Now that the expressions and types are fully updated, initiate a visual refresh.
-            Platform.runLater(() -> this.invalidateVisualState());
+            Platform.runLater(() -> {
+                Span refresh = Trace.refresh(this);
+                this.invalidateVisualState();
+                refresh.commit();
+            });
         }
+
+        span.commit();
     }
     
     /**
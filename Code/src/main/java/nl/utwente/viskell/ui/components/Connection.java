@@ -12,6 +12,8 @@ import javafx.scene.shape.CubicCurve;
 import javafx.scene.transform.Transform;
 import nl.utwente.viskell.haskell.expr.LetExpression;
 import nl.utwente.viskell.haskell.type.*;
+import nl.utwente.viskell.trace.Span;
+import nl.utwente.viskell.trace.Trace;
 import nl.utwente.viskell.ui.BlockContainer;
 import nl.utwente.viskell.ui.ComponentLoader;
 import nl.utwente.viskell.ui.serialize.Bundleable;
@@ -71,11 +73,14 @@ public class Connection extends CubicCurve implements
         this.endAnchor.localToSceneTransformProperty().addListener(this);
 
         // typecheck the new connection to mark potential errors at the best location
+        Span span = Trace.unification(this);
         try {
             TypeChecker.unify("new connection", this.startAnchor.getType(Optional.of(this)), this.endAnchor.getType());
         } catch (HaskellTypeError e) {
             this.endAnchor.setErrorState(true);
             this.errorState = true;
+        } finally {
+            span.commit();
         }
     }
     
@@ -106,17 +111,17 @@ public class Connection extends CubicCurve implements
 
         // for connections in error state typechecking is delayed to the final phase to keep error locations stable
         if (finalPhase == this.errorState) {
+            Span span = Trace.unification(this);
             try {
-                // first a trial unification on a copy of the types to minimize error propagation
-                TypeScope scope = new TypeScope();
-                TypeChecker.unify("trial connection", this.startAnchor.getType(Optional.of(this)).getFresh(scope), this.endAnchor.getType().getFresh(scope));
-                // unify the actual types
-                TypeChecker.unify("connection", this.startAnchor.getType(Optional.of(this)), this.endAnchor.getType());
+                // a failed unification is undone completely, to minimize error propagation
+                TypeChecker.unifyAtomically("connection", this.startAnchor.getType(Optional.of(this)), this.endAnchor.getType());
                 this.endAnchor.setErrorState(false);
                 this.errorState = false;
             } catch (HaskellTypeError e) {
                 this.endAnchor.setErrorState(true);
                 this.errorState = true;
+            } finally {
+                span.commit();
             }
         }
 
@@ -7,7 +7,9 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
 import nl.utwente.viskell.ghcj.GhciSession;
 import nl.utwente.viskell.ghcj.HaskellException;
@@ -18,6 +20,7 @@ import nl.utwente.viskell.ui.ToplevelPane;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * DisplayBlock is an extension of {@link Block} that only provides a display of
@@ -36,9 +39,39 @@ public class DisplayBlock extends Block implements ConnectionAnchor.Target {
 
     /** The label on which to display the value of this block */
     @FXML protected Label value;
+
+    /** The button to show more elements of a list. */
+    @FXML protected Button more;
+
+    /** The button to switch between showing the value as text and as a tree. */
+    @FXML protected Button explore;
+
+    /** The pane with the label or viewer in the center. */
+    @FXML protected BorderPane body;
+
+    /** The viewer that shows the value as a tree, or null when it is shown as text. */
+    private ValueViewer viewer;
     
     /** Show class constrained type variable for the input anchor */
     private final Type showConstraint;
+
+    /** The evaluation of which the result is to be shown, results of older evaluations are stale. */
+    private Object shownResult;
+
+    /** The number of list elements shown at once, the next ones are shown on request. */
+    private static final int LIST_WINDOW = 32;
+
+    /** The name under which a shown value is kept in ghci. */
+    private final String valueName;
+
+    /** The name under which the rest of a shown list is kept in ghci, so more of it can be shown without starting over. */
+    private final String restName;
+
+    /** The number of elements of the shown list that were asked for so far. */
+    private int shownElements;
+
+    /** The text of the list windows that were shown completely. */
+    private String shownText;
             
     /**
      * Creates a new instance of DisplayBlock.
@@ -56,55 +89,181 @@ public class DisplayBlock extends Block implements ConnectionAnchor.Target {
 
         inputAnchor = new InputAnchor(this);
         inputSpace.getChildren().add(0, inputAnchor);
+        this.valueName = "display_" + Integer.toHexString(this.hashCode());
+        this.restName = this.valueName + "_rest";
+        this.shownText = "";
+        this.more.managedProperty().bind(this.more.visibleProperty());
+        this.more.setOnAction(event -> this.streamList());
+        this.explore.setOnAction(event -> this.toggleViewer());
     }
 
     @Override
     public void invalidateVisualState() {
         this.inputAnchor.invalidateVisualState();
+        this.more.setVisible(false);
 
         if (this.inValidContext && inputAnchor.hasValidConnection()) {
             try { 
-                TypeChecker.unify("is showable", inputAnchor.getType().getFresh(), showConstraint.getFresh());
+                TypeChecker.trialUnify("is showable", inputAnchor.getType(), showConstraint);
             
                 GhciSession ghci = getToplevel().getGhciSession();
 
                 Expression expr = inputAnchor.getFullExpr();
                 Type type = inputAnchor.getType().getConcrete();
+                if (this.viewer != null) {
+                    // the viewer only evaluates as much of the value as is looked at
+                    ghci.withdraw(this);
+                    ghci.push(this.valueName, expr);
+                    this.shownResult = null;
+                    this.viewer.show(this.valueName, type);
+                    return;
+                }
+
                 if (type instanceof TypeApp) {
                     List<Type> tapps = ((TypeApp)type).asFlattenedAppChain();
                     if (tapps.get(0) instanceof ListTypeCon) {
-                        // add an extra take on lists, so we don't try to fully eval infinite ones
-                        FunVar take = new FunVar(this.getToplevel().getEnvInstance().lookupFun("take"));
-                        expr = new Apply (new Apply(take, new Value(Type.con("Int"), "32")), expr);
+                        // show lists a window at a time, so we don't try to fully eval infinite ones
+                        ghci.push(this.valueName, expr);
+                        this.shownElements = 0;
+                        this.shownText = "";
+                        this.value.setText("");
+                        this.streamList();
+                        return;
                     }
                 }
                 
-                ListenableFuture<String> result = ghci.pull(expr);
+                // a newer evaluation for this block supersedes the previous one
+                ListenableFuture<String> result = ghci.pull(this, expr);
+                this.shownResult = result;
 
                 Futures.addCallback(result, new FutureCallback<String>() {
                     public void onSuccess(String s) {
                         // Can't call setOutput directly - this may not be JavaFX app thread.
                         // Instead, schedule setting the output.
-                        Platform.runLater(() -> value.setText(s));
+                        Platform.runLater(() -> showResult(result, s));
                     }
 
                     public void onFailure(Throwable throwable) {
-                        if (throwable instanceof HaskellException && "Open expression".equals(throwable.getMessage())) {
-                            Platform.runLater(() -> value.setText("unfinished?"));
+                        if (throwable instanceof CancellationException) {
+                            // superseded by a newer evaluation
+                        } else if (throwable instanceof HaskellException && "Open expression".equals(throwable.getMessage())) {
+                            Platform.runLater(() -> showResult(result, "unfinished?"));
                         } else {
-                            Platform.runLater(() -> value.setText("?!?!?!"));
+                            Platform.runLater(() -> showResult(result, "?!?!?!"));
                         }
                     }
                 });
 
             } catch (HaskellTypeError e) {
+                this.shownResult = null;
                 value.setText("_ :: " + inputAnchor.getStringType());
             }
             
         } else {
+            this.shownResult = null;
+            getToplevel().getGhciSession().withdraw(this);
             value.setText("?");
         }
     }
+
+    /**
+     * Shows the outcome of an evaluation, unless a newer evaluation was started since.
+     * @param result The evaluation the text belongs to.
+     * @param text The text to show.
+     */
+    private void showResult(Object result, String text) {
+        if (result == this.shownResult) {
+            value.setText(text);
+        }
+    }
+
+    /** Switches between showing the value as text and as a tree that is evaluated on demand. */
+    private void toggleViewer() {
+        if (this.viewer == null) {
+            this.viewer = new ValueViewer(getToplevel().getGhciSession());
+            this.viewer.setPrefSize(300, 200);
+            this.body.setCenter(this.viewer);
+            this.explore.setText("text");
+        } else {
+            getToplevel().getGhciSession().withdraw(this.viewer);
+            this.viewer = null;
+            this.body.setCenter(this.value);
+            this.explore.setText("tree");
+        }
+
+        this.invalidateVisualState();
+    }
+
+    /**
+     * Shows the next window of elements of the list, each element as soon as it is computed.
+     * The rest of the list after every window is bound in ghci, and the next window is shown from there,
+     * so the elements that were shown already are not computed again.
+     */
+    private void streamList() {
+        Object evaluation = new Object();
+        this.shownResult = evaluation;
+        this.more.setVisible(false);
+        this.value.setText(this.shownText);
+
+        // the statement binds the rest in the ghci instance that evaluates all streams of this block
+        boolean first = this.shownElements == 0;
+        String cmd = String.format("%s <- viskellStream Prelude.%s %d %s", this.restName, first ? "True" : "False",
+                LIST_WINDOW, first ? this.valueName : this.restName);
+        this.shownElements += LIST_WINDOW;
+
+        GhciSession ghci = getToplevel().getGhciSession();
+        ListenableFuture<String> result = ghci.pullStream(this, cmd, chunk -> Platform.runLater(() -> {
+            if (evaluation == this.shownResult) {
+                value.setText(value.getText() + chunk);
+            }
+        }));
+
+        Futures.addCallback(result, new FutureCallback<String>() {
+            public void onSuccess(String s) {
+                Platform.runLater(() -> showWindow(evaluation, s.trim()));
+            }
+
+            public void onFailure(Throwable throwable) {
+                if (throwable instanceof GhciSession.StateLost) {
+                    // the rest of the list is gone from ghci, so start over from the first window
+                    Platform.runLater(() -> restartList(evaluation));
+                } else if (!(throwable instanceof CancellationException)) {
+                    Platform.runLater(() -> showResult(evaluation, value.getText() + "?!?!?!"));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the list again from the first window, unless a newer evaluation was started since.
+     * @param evaluation The evaluation that failed.
+     */
+    private void restartList(Object evaluation) {
+        if (evaluation == this.shownResult) {
+            this.shownElements = 0;
+            this.shownText = "";
+            this.streamList();
+        }
+    }
+
+    /**
+     * Shows a completely computed window of the list, with the option to show more if the list goes on.
+     * @param evaluation The evaluation the window belongs to.
+     * @param window The elements in the window, ending with dots if the list goes on.
+     */
+    private void showWindow(Object evaluation, String window) {
+        if (evaluation != this.shownResult) {
+            return;
+        }
+
+        this.shownText += window;
+        this.value.setText(this.shownText);
+        if (this.shownText.endsWith(",...")) {
+            // the next window starts with a comma of its own
+            this.shownText = this.shownText.substring(0, this.shownText.length() - 4);
+            this.more.setVisible(true);
+        }
+    }
     
     //TODO NOTE: only used for a meaningless test
     public String getOutput() {
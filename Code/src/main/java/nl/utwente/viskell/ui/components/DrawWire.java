@@ -473,7 +473,7 @@ public class DrawWire extends CubicCurve implements ChangeListener<Transform>, C
                 return 0;
             }
             try {
-                TypeChecker.unify("wire reaction", source.getType(Optional.empty()).getFresh(), sink.getType().getFresh());
+                TypeChecker.trialUnify("wire reaction", source.getType(Optional.empty()), sink.getType());
                 return 1;
             } catch (HaskellTypeError e) {
                 return -1;
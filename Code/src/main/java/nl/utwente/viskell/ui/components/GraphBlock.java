@@ -1,9 +1,7 @@
 package nl.utwente.viskell.ui.components;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -17,13 +15,12 @@ import javafx.scene.chart.XYChart;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
 import nl.utwente.viskell.ghcj.GhciSession;
+import nl.utwente.viskell.ghcj.GhciSession.Priority;
 import nl.utwente.viskell.haskell.expr.Expression;
-import nl.utwente.viskell.haskell.type.FunType;
 import nl.utwente.viskell.haskell.type.Type;
 import nl.utwente.viskell.haskell.type.TypeScope;
 import nl.utwente.viskell.ui.ToplevelPane;
 
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -86,7 +83,7 @@ public class GraphBlock extends Block {
 
     @Override
     public void refreshAnchorTypes() {
-        this.input.setFreshRequiredType(new FunType(Type.con("Double"), Type.con("Double")), new TypeScope()); 
+        this.input.setFreshRequiredType(Type.fun(Type.con("Double"), Type.con("Double")), new TypeScope()); 
     }
 
     @Override
@@ -105,27 +102,49 @@ public class GraphBlock extends Block {
 
         try {
             GhciSession ghciSession = getToplevel().getGhciSession();
-            String funName = "graph_fun_" + Integer.toHexString(this.hashCode());
-            ghciSession.push(funName, this.getAllInputs().get(0).getFullExpr());
-            String range = String.format(Locale.US, " [%f,%f..%f]", min, min+step, max);
-            String results = ghciSession.pullRaw("putStrLn $ unwords $ map show $ map " + funName + range).get();
+            Expression function = this.getAllInputs().get(0).getFullExpr();
+            Optional<double[]> local = ghciSession.sampleLocally(function, samplePoints(min, max, step));
+            double[] results;
+            if (local.isPresent()) {
+                results = local.get();
+            } else {
+                String funName = "graph_fun_" + Integer.toHexString(this.hashCode());
+                ghciSession.push(funName, function);
+                String range = String.format(Locale.US, " [%f,%f..%f]", min, min+step, max);
+                results = ghciSession.pullNumbers(Priority.BULK, null, "map " + funName + range).get();
+            }
 
             LineChart.Series<Double, Double> series = new LineChart.Series<>();
             ObservableList<XYChart.Data<Double, Double>> data = series.getData();
-            Iterator<String> v = Splitter.on(' ').split(results).iterator();
 
-            for (double i = min; i < max; i += step) {
-                data.add(new XYChart.Data<>(i, Double.valueOf(v.next())));
+            int n = 0;
+            for (double i = min; i < max && n < results.length; i += step) {
+                data.add(new XYChart.Data<>(i, results[n++]));
             }
 
             lineChartData.add(series);
-        } catch (NoSuchElementException | NumberFormatException | InterruptedException | ExecutionException ignored) {
+        } catch (InterruptedException | ExecutionException ignored) {
             // Pretend we didn't hear anything.
         }
 
         chart.setData(lineChartData);
     }
 
+    /** @return the x values the graph is drawn at, computed the same way as when plotting them. */
+    private static double[] samplePoints(double min, double max, double step) {
+        int count = 0;
+        for (double i = min; i < max; i += step) {
+            count++;
+        }
+
+        double[] xs = new double[count];
+        int n = 0;
+        for (double i = min; i < max; i += step) {
+            xs[n++] = i;
+        }
+        return xs;
+    }
+
     @Override
     public boolean checkValidInCurrentContainer() {
         if (this.container instanceof LambdaContainer || this.container instanceof Lane) {
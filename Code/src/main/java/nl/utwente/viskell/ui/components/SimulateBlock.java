@@ -3,6 +3,7 @@ package nl.utwente.viskell.ui.components;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -48,6 +49,9 @@ public class SimulateBlock extends Block implements ComponentLoader {
     /** The number of results to calculate and show */
     private int iteration;
 
+    /** The evaluation of which the result is to be shown, results of older evaluations are stale. */
+    private Object shownResult;
+
     public SimulateBlock(ToplevelPane pane) {
         super(pane);
         loadFXML("SimulateBlock");
@@ -70,18 +74,38 @@ public class SimulateBlock extends Block implements ComponentLoader {
             GhciSession ghciSession = getToplevel().getGhciSession();
             String format = "Data.List.take %d $ simulate (%s) [1..]";
             String expr = String.format(format, iteration, inputAnchor.getFullExpr().toHaskell());
-            ListenableFuture<String> result = ghciSession.pullRaw(expr);
+            ListenableFuture<String> result = ghciSession.pullRaw(this, expr);
+            this.shownResult = result;
 
             // See DisplayBlock.invalidateVisualState
             Futures.addCallback(result, new FutureCallback<String>() {
-                public void onSuccess(String s)    { Platform.runLater(() -> value.setText(s)); }
-                public void onFailure(Throwable t) { Platform.runLater(() -> value.setText("?!?!?!")); }
+                public void onSuccess(String s) {
+                    Platform.runLater(() -> showResult(result, s));
+                }
+
+                public void onFailure(Throwable t) {
+                    if (!(t instanceof CancellationException)) {
+                        Platform.runLater(() -> showResult(result, "?!?!?!"));
+                    }
+                }
             });
         } else {
+            this.shownResult = null;
             value.setText("?");
         }
     }
 
+    /**
+     * Shows the outcome of an evaluation, unless a newer evaluation was started since.
+     * @param result The evaluation the text belongs to.
+     * @param text The text to show.
+     */
+    private void showResult(Object result, String text) {
+        if (result == this.shownResult) {
+            value.setText(text);
+        }
+    }
+
     /** Step to the next iteration. */
     public void step() {
         setIteration(iteration + 1);
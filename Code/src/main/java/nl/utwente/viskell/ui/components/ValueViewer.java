@@ -0,0 +1,304 @@
+package nl.utwente.viskell.ui.components;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import javafx.application.Platform;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import nl.utwente.viskell.ghcj.Frame;
+import nl.utwente.viskell.ghcj.GhciSession;
+import nl.utwente.viskell.ghcj.GhciSession.Priority;
+import nl.utwente.viskell.haskell.type.ListTypeCon;
+import nl.utwente.viskell.haskell.type.TupleTypeCon;
+import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.haskell.type.TypeApp;
+import nl.utwente.viskell.haskell.type.TypeCon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows a value as a tree, of which the parts are only evaluated when they are expanded.
+ *
+ * Every item shows the first characters of its shown value, which only needs
+ * evaluating as much of the value as that takes. Lists, tuples, Maybe and
+ * Either values can be expanded into their elements or fields, with follow up
+ * queries on the value. The elements of a list are fetched a window at a time,
+ * so a long or infinite list only costs as much as is looked at. Every window
+ * is bound to a name in ghci, its elements index into that and the next window
+ * starts from it, so nothing before the window is computed again. The tree
+ * view only creates cells for the visible items.
+ *
+ * The viewer is the requester of its queries, so they all go to the ghci
+ * instance that has its windows, and a newer query supersedes an older one.
+ */
+public class ValueViewer extends TreeView<String> {
+    /** The number of list elements fetched at once. */
+    private static final int WINDOW = 32;
+
+    /** The number of characters shown of every value. */
+    private static final int BRIEF = 80;
+
+    /** Counts the viewers, to give the windows of every viewer their own names. */
+    private static final AtomicInteger viewers = new AtomicInteger();
+
+    /** The session to evaluate the parts of the value with. */
+    private final GhciSession ghci;
+
+    /** The start of the names of the windows of this viewer. */
+    private final String windowPrefix;
+
+    /** The number of windows of the shown value, used to name the next one. */
+    private int windows;
+
+    /** The Haskell code of the shown value. */
+    private String shownExpr;
+
+    /** The type of the shown value. */
+    private Type shownType;
+
+    /**
+     * @param ghci The session to evaluate the parts of the value with.
+     */
+    public ValueViewer(GhciSession ghci) {
+        super();
+        this.ghci = ghci;
+        this.windowPrefix = "viewer" + viewers.incrementAndGet() + "_";
+        this.setShowRoot(true);
+        this.getStyleClass().add("content");
+    }
+
+    /**
+     * Shows a new value, replacing the previous one.
+     * @param expr The Haskell code of the value, which should be cheap to evaluate again, such as the name of a binding.
+     * @param type The concrete type of the value.
+     */
+    public void show(String expr, Type type) {
+        // the windows of the previous value are shadowed by those of the new one
+        this.ghci.withdraw(this);
+        this.windows = 0;
+        this.shownExpr = expr;
+        this.shownType = type;
+
+        ValueItem root = new ValueItem(expr, type);
+        this.setRoot(root);
+        this.fetch("viskellBrief " + (BRIEF + 1) + " " + expr, ImmutableList.of(root), () -> {});
+    }
+
+    /**
+     * Evaluates a command that writes a frame for every item, and shows the frames on the items.
+     * @param cmd The Haskell code that writes the frames.
+     * @param items The items to show the frames on, in order, which are updated on the JavaFX thread.
+     * @param superseded Runs on the JavaFX thread when a newer query takes the place of this one.
+     */
+    private void fetch(String cmd, List<ValueItem> items, Runnable superseded) {
+        Futures.addCallback(this.ghci.pullFrames(Priority.INTERACTIVE, this, cmd), new FutureCallback<List<Frame>>() {
+            public void onSuccess(List<Frame> frames) {
+                Platform.runLater(() -> {
+                    for (int i = 0; i < items.size(); i++) {
+                        items.get(i).setValue(i < frames.size() ? brief(frames.get(i)) : "?");
+                    }
+                });
+            }
+
+            public void onFailure(Throwable t) {
+                if (t instanceof CancellationException) {
+                    Platform.runLater(superseded);
+                } else if (!restartIfLost(t)) {
+                    Platform.runLater(() -> items.forEach(item -> item.setValue("?!?!?! " + t.getMessage())));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the value again from the start if a query failed because ghci lost the windows.
+     * @param t The failure of the query.
+     * @return whether the value is shown again.
+     */
+    private boolean restartIfLost(Throwable t) {
+        if (!(t instanceof GhciSession.StateLost)) {
+            return false;
+        }
+
+        Platform.runLater(() -> this.show(this.shownExpr, this.shownType));
+        return true;
+    }
+
+    /** @return the text to show for a frame, cut off with dots if the value goes on. */
+    private static String brief(Frame frame) {
+        String text = frame.getPayload();
+        if (!frame.isValue()) {
+            return "?!?!?! " + text;
+        }
+        return text.codePointCount(0, text.length()) > BRIEF ? text.substring(0, text.offsetByCodePoints(0, BRIEF)) + "..." : text;
+    }
+
+    /** @return the constructor and arguments of a type, or just the type if it is not an application. */
+    private static List<Type> flatten(Type type) {
+        return type instanceof TypeApp ? ((TypeApp) type).asFlattenedAppChain() : ImmutableList.of(type);
+    }
+
+    /** An item showing a part of the value, of which the parts are fetched when it is expanded. */
+    private final class ValueItem extends TreeItem<String> {
+        /** The Haskell code of this part of the value. */
+        private final String expr;
+
+        /** The type constructor and arguments of this part of the value. */
+        private final List<Type> type;
+
+        /** The name of the last fetched window of a list, or null if none was fetched yet. */
+        private String window;
+
+        /** Whether the parts were fetched already. */
+        private boolean fetched;
+
+        private ValueItem(String expr, Type type) {
+            super("...");
+            this.expr = expr;
+            this.type = flatten(type);
+            this.expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+                if (expanded && !this.fetched) {
+                    this.fetched = true;
+                    this.fetchParts();
+                }
+            });
+        }
+
+        @Override
+        public boolean isLeaf() {
+            Type con = this.type.get(0);
+            if (con instanceof ListTypeCon || con instanceof TupleTypeCon && this.type.size() > 1) {
+                return false;
+            }
+
+            String value = this.getValue();
+            return !(con instanceof TypeCon && this.fieldOf(((TypeCon) con).getName(), value) != null);
+        }
+
+        /**
+         * @param con The name of the type constructor.
+         * @param value The shown value.
+         * @return the data constructor of the value if it has a single field to show, or null.
+         */
+        private String fieldOf(String con, String value) {
+            List<String> constructors;
+            switch (con) {
+                case "Maybe":  constructors = ImmutableList.of("Just"); break;
+                case "Either": constructors = ImmutableList.of("Left", "Right"); break;
+                default:       constructors = Collections.emptyList(); break;
+            }
+
+            for (String constructor : constructors) {
+                if (value.startsWith(constructor + " ")) {
+                    return constructor;
+                }
+            }
+            return null;
+        }
+
+        /** Fetches the elements or fields of this part of the value. */
+        private void fetchParts() {
+            Type con = this.type.get(0);
+            if (con instanceof ListTypeCon) {
+                this.fetchWindow();
+                return;
+            }
+
+            List<String> parts = new ArrayList<>();
+            List<Type> types = new ArrayList<>();
+            if (con instanceof TupleTypeCon) {
+                int arity = this.type.size() - 1;
+                for (int i = 0; i < arity; i++) {
+                    List<String> pattern = new ArrayList<>(Collections.nCopies(arity, "_"));
+                    pattern.set(i, "x");
+                    parts.add(String.format("(\\(%s) -> x) (%s)", Joiner.on(",").join(pattern), this.expr));
+                    types.add(this.type.get(i + 1));
+                }
+            } else {
+                String constructor = this.fieldOf(((TypeCon) con).getName(), this.getValue());
+                // the last argument of the type is the one in Just and Right, Left has the first
+                Type field = this.type.get("Left".equals(constructor) ? 1 : this.type.size() - 1);
+                parts.add(String.format("(\\(Prelude.%s x) -> x) (%s)", constructor, this.expr));
+                types.add(field);
+            }
+
+            List<ValueItem> items = new ArrayList<>();
+            StringBuilder cmd = new StringBuilder("Prelude.sequence_ [");
+            for (int i = 0; i < parts.size(); i++) {
+                items.add(new ValueItem(parts.get(i), types.get(i)));
+                cmd.append(i == 0 ? "" : ", ").append("viskellBrief ").append(BRIEF + 1).append(" (").append(parts.get(i)).append(')');
+            }
+            cmd.append(']');
+
+            this.getChildren().setAll(items);
+            fetch(cmd.toString(), items, () -> {
+                // expanding the item again fetches the parts again
+                this.fetched = false;
+                this.setExpanded(false);
+            });
+        }
+
+        /** Fetches the next window of elements of a list, with an item to fetch more after it. */
+        private void fetchWindow() {
+            // the statement binds the window, from where the previous one ends
+            String name = windowPrefix + windows++;
+            String list = this.window == null ? this.expr : String.format("Prelude.drop %d %s", WINDOW, this.window);
+            String cmd = String.format("%s <- (\\w -> Prelude.mapM_ (viskellBrief %d) (Prelude.take %d w) Prelude.>> Prelude.return w) (%s)",
+                    name, BRIEF + 1, WINDOW, list);
+
+            Futures.addCallback(ghci.pullFrames(Priority.INTERACTIVE, ValueViewer.this, cmd), new FutureCallback<List<Frame>>() {
+                public void onSuccess(List<Frame> frames) {
+                    Platform.runLater(() -> showWindow(name, frames));
+                }
+
+                public void onFailure(Throwable t) {
+                    if (t instanceof CancellationException) {
+                        Platform.runLater(() -> addMore());
+                    } else if (!restartIfLost(t)) {
+                        Platform.runLater(() -> getChildren().add(new TreeItem<>("?!?!?! " + t.getMessage())));
+                    }
+                }
+            });
+        }
+
+        /**
+         * Adds the elements of a window of the list.
+         * @param name The name the window is bound to in ghci.
+         * @param frames The frame of every element in the window, fewer than a whole window if the list ends.
+         */
+        private void showWindow(String name, List<Frame> frames) {
+            this.window = name;
+            Type element = this.type.get(1);
+            for (int i = 0; i < frames.size(); i++) {
+                ValueItem item = new ValueItem(String.format("(%s Prelude.!! %d)", name, i), element);
+                item.setValue(brief(frames.get(i)));
+                this.getChildren().add(item);
+            }
+
+            if (frames.size() == WINDOW) {
+                this.addMore();
+            }
+        }
+
+        /** Adds an item to fetch the next window of the list. */
+        private void addMore() {
+            TreeItem<String> more = new TreeItem<>("more...");
+            // an empty child, so the item can be expanded to fetch more
+            more.getChildren().add(new TreeItem<>());
+            more.expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+                if (expanded && this.getChildren().contains(more)) {
+                    this.getChildren().remove(more);
+                    this.fetchWindow();
+                }
+            });
+            this.getChildren().add(more);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CompiledModuleTest {
+    /** Our connection with Ghci. */
+    private GhciEvaluator ghci = null;
+
+    /** The module with the shared bindings. */
+    private CompiledModule module = null;
+
+    /** The first compiled version of the module. */
+    private SettableFuture<CompiledModule.Build> build = null;
+
+    @Before
+    public void setUp() throws HaskellException {
+        this.ghci = new GhciEvaluator();
+        this.build = SettableFuture.create();
+        this.module = new CompiledModule(this.build::set, error -> this.build.setException(new HaskellException(error)));
+    }
+
+    @After
+    public void tearDown() throws HaskellException {
+        this.module.close();
+        this.ghci.close();
+    }
+
+    @Test
+    public void loadAndReplayTest() throws Exception {
+        this.module.define("shared_a", "shared_a :: [Integer]; shared_a = [1..10]");
+        this.module.start(this.ghci);
+        CompiledModule.Build compiled = this.build.get(2, TimeUnit.MINUTES);
+
+        this.ghci.startPipeline();
+        String loaded = this.ghci.loadAsync(compiled.source).get();
+        Assert.assertTrue(loaded, loaded.contains("Ok,"));
+
+        // the flags match those of the compiler, so ghci uses the object code instead of interpreting the module
+        String modules = this.ghci.evalAsync(":show modules").get();
+        Assert.assertFalse(modules, modules.contains("interpreted"));
+
+        // a binding replayed after loading builds on the compiled one, and the helpers are there again
+        this.ghci.evalAsync("let {shared_b :: Integer; shared_b = sum shared_a}").get();
+        String response = this.ghci.evalFramedAsync(Evaluator.itemsCommand(ImmutableList.of("shared_b")), 0).get();
+        Assert.assertEquals("55", Frame.parseAll(response).get(0).getPayload());
+    }
+}
@@ -0,0 +1,115 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameTest {
+
+    @Test
+    public void valuesAndExceptionsTest() throws HaskellException {
+        List<Frame> frames = Frame.parseAll("+1:4!14:divide by zero+6:\"a:+b\"");
+
+        Assert.assertEquals(3, frames.size());
+        Assert.assertTrue(frames.get(0).isValue());
+        Assert.assertEquals("4", frames.get(0).getPayload());
+        Assert.assertFalse(frames.get(1).isValue());
+        Assert.assertEquals("divide by zero", frames.get(1).getPayload());
+        Assert.assertEquals("\"a:+b\"", frames.get(2).getPayload());
+    }
+
+    @Test
+    public void codePointLengthTest() throws HaskellException {
+        // the length is in Haskell characters, a character outside the BMP is two Java chars
+        List<Frame> frames = Frame.parseAll("+3:a𝕏b+0:");
+
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals("a𝕏b", frames.get(0).getPayload());
+        Assert.assertEquals("", frames.get(1).getPayload());
+    }
+
+    @Test
+    public void numbersTest() throws HaskellException {
+        List<Frame> frames = Frame.parseAll("#24:1.0 -2.5e-2 Infinity NaN#0:");
+
+        Assert.assertTrue(frames.get(0).isValue());
+        Assert.assertArrayEquals(new double[] {1.0, -0.025, Double.POSITIVE_INFINITY, Double.NaN}, frames.get(0).getNumbers(), 0);
+        Assert.assertEquals(0, frames.get(1).getNumbers().length);
+    }
+
+    @Test(expected = HaskellException.class)
+    public void notNumbersTest() throws HaskellException {
+        Frame.parseNumbers("1.0 [2.0]");
+    }
+
+    @Test
+    public void emptyResponseTest() throws HaskellException {
+        Assert.assertTrue(Frame.parseAll("").isEmpty());
+    }
+
+    @Test(expected = HaskellException.class)
+    public void truncatedTest() throws HaskellException {
+        Frame.parseAll("+10:short");
+    }
+
+    @Test
+    public void collectorTest() {
+        List<Frame> frames = new ArrayList<>();
+        Frame.Collector collector = new Frame.Collector(frames::add);
+
+        // frames are passed on once complete, however the response is cut into chunks
+        collector.accept("+1:4!1");
+        Assert.assertEquals(1, frames.size());
+        collector.accept("4:divide by");
+        Assert.assertEquals(1, frames.size());
+        collector.accept(" zero+3:a𝕏b+");
+        Assert.assertEquals(3, frames.size());
+        Assert.assertEquals("divide by zero", frames.get(1).getPayload());
+        Assert.assertEquals("a𝕏b", frames.get(2).getPayload());
+    }
+
+    @Test
+    public void collectorCharByCharTest() {
+        List<Frame> frames = new ArrayList<>();
+        Frame.Collector collector = new Frame.Collector(frames::add);
+
+        // even a surrogate pair cut in half is put together again
+        String response = "+3:a\uD835\uDD4Fb+0:!2:no";
+        for (char c : response.toCharArray()) {
+            collector.accept(String.valueOf(c));
+        }
+        Assert.assertEquals("[+a\uD835\uDD4Fb, +, !no]", frames.toString());
+    }
+
+    @Test
+    public void shortMessageTest() {
+        StringBuilder response = new StringBuilder("+9:");
+        for (int i = 0; i < 10000; i++) {
+            response.append('x');
+        }
+
+        try {
+            Frame.parseAll(response.toString());
+            Assert.fail();
+        } catch (HaskellException e) {
+            Assert.assertTrue(e.getMessage().length() < 300);
+        }
+    }
+
+    @Test
+    public void collectorNotFramedTest() {
+        List<Frame> frames = new ArrayList<>();
+        Frame.Collector collector = new Frame.Collector(frames::add);
+
+        collector.accept("<interactive>:1:1: error");
+        collector.accept("+1:4");
+        Assert.assertTrue(frames.isEmpty());
+    }
+
+    @Test(expected = HaskellException.class)
+    public void notFramedTest() throws HaskellException {
+        Frame.parseAll("<interactive>:1:1: error");
+    }
+}
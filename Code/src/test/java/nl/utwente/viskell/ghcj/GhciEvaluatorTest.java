@@ -1,5 +1,6 @@
 package nl.utwente.viskell.ghcj;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -27,6 +28,14 @@ public class GhciEvaluatorTest {
         Assert.assertEquals("4" + this.NL, this.ghci.eval("2 + 2"));
     }
 
+    @Test
+    public void interruptedLineTest() {
+        Assert.assertTrue(Evaluator.endsInterrupted("Interrupted." + this.NL));
+        Assert.assertTrue(Evaluator.endsInterrupted("[1,2,3Interrupted." + this.NL));
+        Assert.assertFalse(Evaluator.endsInterrupted("\"Interrupted.\"" + this.NL));
+        Assert.assertFalse(Evaluator.endsInterrupted("Interrupted." + this.NL + "42" + this.NL));
+    }
+
     @Test
     public void typeErrorTest() throws HaskellException {
         try {
@@ -36,4 +45,16 @@ public class GhciEvaluatorTest {
             Assert.assertTrue(e.getMessage().contains("No instance for"));
         }
     }
+
+    @Test
+    public void pipelinedOrderTest() throws Exception {
+        this.ghci.startPipeline();
+        ListenableFuture<String> first = this.ghci.evalAsync("2 + 2");
+        ListenableFuture<String> second = this.ghci.evalAsync("putStrLn \"Hello\"");
+        ListenableFuture<String> third = this.ghci.evalAsync("3 * 3");
+
+        Assert.assertEquals("9" + this.NL, third.get());
+        Assert.assertEquals("Hello" + this.NL, second.get());
+        Assert.assertEquals("4" + this.NL, first.get());
+    }
 }
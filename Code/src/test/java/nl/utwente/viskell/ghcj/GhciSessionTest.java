@@ -9,6 +9,12 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+
 public class GhciSessionTest {
     /** Our session with Ghci. */
     private GhciSession ghci = null;
@@ -44,4 +50,35 @@ public class GhciSessionTest {
         this.ghci.push("my_pi", this.pi);
         Assert.assertEquals("3.14", this.ghci.pullRaw("my_pi").get());
     }
+
+    @Test
+    public void streamRestTest() throws Exception {
+        // every cell of the list writes its index to a file when it is made
+        File made = File.createTempFile("viskell", ".log");
+        made.deleteOnExit();
+        String path = made.getAbsolutePath().replace("\\", "\\\\");
+        this.ghci.push("stream_xs", new Value(Type.listOf(Type.con("Int")), String.format(
+                "let cell i = System.IO.Unsafe.unsafePerformIO (Prelude.appendFile \"%s\" (Prelude.show i Prelude.++ \"\\n\")) "
+                + "`Prelude.seq` (i : cell (i Prelude.+ 1)) in cell (0 :: Prelude.Int)", path)));
+
+        Object requester = new Object();
+        Assert.assertEquals("[0,1,2,3,...", this.ghci.pullStream(requester, "stream_rest <- viskellStream Prelude.True 4 stream_xs", s -> {}).get());
+        Assert.assertEquals(",4,5,6,7,...", this.ghci.pullStream(requester, "stream_rest <- viskellStream Prelude.False 4 stream_rest", s -> {}).get());
+
+        // the second window continued from the rest, instead of making the first cells again
+        List<String> cells = Files.readAllLines(made.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(cells.toString(), cells.size(), new HashSet<>(cells).size());
+    }
+
+    @Test
+    public void framesWindowTest() throws Exception {
+        Object requester = new Object();
+        List<Frame> window = this.ghci.pullFrames(GhciSession.Priority.INTERACTIVE, requester,
+                "frames_w <- (\\w -> Prelude.mapM_ viskellItem (Prelude.take 2 w) Prelude.>> Prelude.return w) [10, 20, 30 :: Prelude.Int]").get();
+        Assert.assertEquals("[+2:10, +2:20]", window.toString());
+
+        // the window is only bound in the ghci instance of the requester
+        List<Frame> element = this.ghci.pullFrames(GhciSession.Priority.INTERACTIVE, requester, "viskellItem (frames_w Prelude.!! 1)").get();
+        Assert.assertEquals("20", element.get(0).getPayload());
+    }
 }
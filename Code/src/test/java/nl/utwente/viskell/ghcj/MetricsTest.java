@@ -0,0 +1,34 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+    @Test
+    public void histogramTest() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.observe(2000000L);
+        histogram.observe(3000000L);
+        histogram.observe(120000000000L);
+
+        StringBuilder text = new StringBuilder();
+        histogram.write(text, "test_seconds", "Test.");
+        String out = text.toString();
+
+        Assert.assertTrue(out.contains("# TYPE test_seconds histogram\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"0.001\"} 0\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"0.005\"} 2\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"60.0\"} 2\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(out.contains("test_seconds_sum 120.005000\n"));
+        Assert.assertTrue(out.contains("test_seconds_count 3\n"));
+    }
+
+    @Test
+    public void textTest() {
+        String text = Metrics.get().getText();
+        Assert.assertTrue(text.contains("# TYPE ghci_requests_total counter\n"));
+        Assert.assertTrue(text.contains("# TYPE ghci_queue_depth gauge\n"));
+        Assert.assertTrue(text.contains("ghci_eval_seconds_count "));
+    }
+}
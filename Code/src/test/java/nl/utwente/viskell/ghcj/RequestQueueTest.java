@@ -0,0 +1,135 @@
+package nl.utwente.viskell.ghcj;
+
+import nl.utwente.viskell.ghcj.GhciSession.Priority;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RequestQueueTest {
+
+    @Test
+    public void urgentOvertakesBulkTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        queue.offer("bulk1", Priority.BULK);
+        queue.offer("bulk2", Priority.BULK);
+        queue.offer("display", Priority.DISPLAY);
+        queue.offer("interactive", Priority.INTERACTIVE);
+
+        Assert.assertEquals("interactive", queue.take());
+        Assert.assertEquals("display", queue.take());
+        Assert.assertEquals("bulk1", queue.take());
+        Assert.assertEquals("bulk2", queue.take());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void starvationTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(64);
+        queue.offer("bulk", Priority.BULK);
+        for (int i = 0; i < 2 * RequestQueue.STARVATION_LIMIT; i++) {
+            queue.offer("interactive", Priority.INTERACTIVE);
+        }
+
+        for (int i = 0; i < RequestQueue.STARVATION_LIMIT; i++) {
+            Assert.assertEquals("interactive", queue.take());
+        }
+        Assert.assertEquals("bulk", queue.take());
+        Assert.assertEquals("interactive", queue.take());
+    }
+
+    @Test
+    public void acceptableTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        String poison = "poison";
+        queue.offer("other interactive", Priority.INTERACTIVE);
+        queue.offer("mine", Priority.DISPLAY);
+        queue.offer(poison, Priority.BULK);
+        queue.offer(poison, Priority.BULK);
+
+        // skipped elements stay in place for other takers
+        Assert.assertEquals("mine", queue.take(e -> !e.startsWith("other")));
+        Assert.assertEquals("poison", queue.take(e -> !e.startsWith("other")));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("other interactive", queue.take());
+        Assert.assertEquals("poison", queue.take());
+    }
+
+    @Test
+    public void promoteTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        String shared = "shared";
+        queue.offer("display", Priority.DISPLAY);
+        queue.offer(shared, Priority.BULK);
+
+        Assert.assertTrue(queue.promote(shared, Priority.INTERACTIVE));
+        Assert.assertFalse(queue.promote(shared, Priority.BULK));
+        Assert.assertEquals("shared", queue.take());
+        Assert.assertEquals("display", queue.take());
+    }
+
+    @Test
+    public void drainTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        queue.offer("a1", Priority.DISPLAY);
+        queue.offer("b", Priority.DISPLAY);
+        queue.offer("a2", Priority.DISPLAY);
+        queue.offer("a3", Priority.BULK);
+        queue.offer("a4", Priority.DISPLAY);
+
+        Assert.assertEquals(Arrays.asList("a1", "a2"), queue.drain(Priority.DISPLAY, s -> s.startsWith("a"), 2));
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals("b", queue.take());
+        Assert.assertEquals("a4", queue.take());
+        Assert.assertEquals("a3", queue.take());
+    }
+
+    @Test
+    public void capacityTest() {
+        RequestQueue<String> queue = new RequestQueue<>(2);
+        Assert.assertTrue(queue.offer("a", Priority.BULK));
+        Assert.assertTrue(queue.offer("b", Priority.INTERACTIVE));
+        Assert.assertFalse(queue.offer("c", Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void putAlwaysTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(1);
+        Assert.assertTrue(queue.offer("a", Priority.BULK));
+        queue.putAlways("b", Priority.INTERACTIVE);
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("b", queue.take());
+        Assert.assertFalse(queue.offer("c", Priority.BULK));
+    }
+
+    @Test
+    public void removeTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        queue.offer("a1", Priority.INTERACTIVE);
+        queue.offer("b1", Priority.BULK);
+        queue.offer("a2", Priority.BULK);
+        queue.offer("b2", Priority.DISPLAY);
+
+        Assert.assertEquals("a2", queue.removeOldest(s -> s.startsWith("a")));
+        Assert.assertEquals("b1", queue.removeOldest(s -> true));
+        Assert.assertNull(queue.removeOldest(s -> s.startsWith("c")));
+        Assert.assertEquals(Arrays.asList("a1"), queue.removeIf(s -> s.startsWith("a")));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals("b2", queue.take());
+    }
+
+    @Test
+    public void replaceTest() throws InterruptedException {
+        RequestQueue<String> queue = new RequestQueue<>(16);
+        queue.offer("a", Priority.DISPLAY);
+        queue.offer("b", Priority.DISPLAY);
+        queue.offer("c", Priority.DISPLAY);
+
+        Assert.assertTrue(queue.replace("b", "d"));
+        Assert.assertFalse(queue.replace("b", "e"));
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals("a", queue.take());
+        Assert.assertEquals("d", queue.take());
+        Assert.assertEquals("c", queue.take());
+    }
+}
@@ -0,0 +1,75 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SentinelReaderTest {
+
+    private SentinelReader readerFor(String input, int bufferSize) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        return new SentinelReader(Channels.newChannel(new ByteArrayInputStream(bytes)), (byte) 0, bufferSize);
+    }
+
+    @Test
+    public void multipleResponsesTest() throws IOException {
+        SentinelReader reader = this.readerFor("4\n\0Hello\n\0\0", 64);
+        Assert.assertEquals("4\n", reader.readResponse());
+        Assert.assertEquals("Hello\n", reader.readResponse());
+        Assert.assertEquals("", reader.readResponse());
+    }
+
+    @Test
+    public void responseLargerThanBufferTest() throws IOException {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            big.append(i).append(' ');
+        }
+
+        SentinelReader reader = this.readerFor(big + "\0rest\0", 7);
+        Assert.assertEquals(big.toString(), reader.readResponse());
+        Assert.assertEquals("rest", reader.readResponse());
+    }
+
+    @Test
+    public void splitMultiByteCharacterTest() throws IOException {
+        // with a buffer of 2 bytes, every multi byte character gets split over reads
+        SentinelReader reader = this.readerFor("\"λx → ∀\"\0", 2);
+        Assert.assertEquals("\"λx → ∀\"", reader.readResponse());
+    }
+
+    @Test
+    public void progressTest() throws IOException {
+        // every chunk ends at a character boundary, and together they are the whole response
+        SentinelReader reader = this.readerFor("[1,λ,∀]\0next\0", 3);
+        List<String> chunks = new ArrayList<>();
+        Assert.assertEquals("[1,λ,∀]", reader.readResponse(chunks::add));
+        Assert.assertTrue(chunks.size() > 1);
+        Assert.assertTrue("[1,λ,∀]".startsWith(String.join("", chunks)));
+        Assert.assertEquals("next", reader.readResponse());
+    }
+
+    @Test
+    public void limitTest() throws IOException {
+        // the rest of a response that is too large is discarded, without cutting a character in half
+        byte[] bytes = "abcλλλλ\0next\0".getBytes(StandardCharsets.UTF_8);
+        SentinelReader reader = new SentinelReader(Channels.newChannel(new ByteArrayInputStream(bytes)), (byte) 0, 2, 6);
+        Assert.assertEquals("abcλ" + SentinelReader.TRUNCATED, reader.readResponse());
+        Assert.assertTrue(reader.isTruncated());
+        Assert.assertEquals("next", reader.readResponse());
+        Assert.assertFalse(reader.isTruncated());
+    }
+
+    @Test(expected = EOFException.class)
+    public void missingSentinelTest() throws IOException {
+        SentinelReader reader = this.readerFor("no end", 64);
+        reader.readResponse();
+    }
+}
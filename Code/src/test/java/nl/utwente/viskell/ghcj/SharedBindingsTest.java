@@ -0,0 +1,116 @@
+package nl.utwente.viskell.ghcj;
+
+import nl.utwente.viskell.haskell.expr.Binder;
+import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.haskell.expr.Value;
+import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.haskell.type.TypeVar;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SharedBindingsTest {
+    private Binder a;
+    private Binder b;
+    private Map<String, String> defined;
+    private List<String> dropped;
+    private SharedBindings shared;
+
+    @Before
+    public void setUp() {
+        this.a = new Binder("a");
+        this.a.setAnnotationAsType(Type.listOf(Type.con("Integer")));
+        this.b = new Binder("b");
+        this.b.setAnnotationAsType(Type.con("Integer"));
+        this.defined = new LinkedHashMap<>();
+        this.dropped = new ArrayList<>();
+        this.shared = new SharedBindings();
+    }
+
+    private String rewrite(String aCode) {
+        return this.rewrite(this, aCode);
+    }
+
+    private String rewrite(Object requester, String aCode) {
+        Type integer = Type.con("Integer");
+        LetExpression let = new LetExpression(new Value(integer, this.b.getUniqueName() + " + 1"), false);
+        let.addLetBinding(this.b, new Value(integer, "sum " + this.a.getUniqueName()));
+        let.addLetBinding(this.a, new Value(Type.listOf(integer), aCode));
+        return this.shared.rewrite(requester, let, this.defined::put, this.dropped::add);
+    }
+
+    /** @return the shared name of a binder that was defined last. */
+    private String sharedName(Binder binder) {
+        String prefix = "shared_" + binder.getUniqueName() + "_";
+        return this.defined.keySet().stream().filter(name -> name.startsWith(prefix)).reduce((a, b) -> b).get();
+    }
+
+    @Test
+    public void sharedOnceTest() {
+        String first = this.rewrite("[1..1000000]");
+        String sharedA = this.sharedName(this.a);
+        String sharedB = this.sharedName(this.b);
+
+        Assert.assertEquals("(" + sharedB + " + 1)", first);
+        Assert.assertEquals(2, this.defined.size());
+        Assert.assertEquals(sharedA + " :: [Integer]; " + sharedA + " = ([1..1000000])", this.defined.get(sharedA));
+        Assert.assertEquals(sharedB + " :: Integer; " + sharedB + " = (sum " + sharedA + ")", this.defined.get(sharedB));
+
+        this.defined.clear();
+        Assert.assertEquals(first, this.rewrite("[1..1000000]"));
+        Assert.assertTrue(this.defined.isEmpty());
+    }
+
+    @Test
+    public void changedDependencyTest() {
+        String first = this.rewrite("[1..1000000]");
+        this.defined.clear();
+
+        // b itself is unchanged, but it is bound again under a new name to use the new a
+        String second = this.rewrite("[1..10]");
+        Assert.assertEquals(2, this.defined.size());
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(2, this.dropped.size());
+
+        // the old names still mean the old definitions, so they are defined again if used again
+        this.defined.clear();
+        Assert.assertEquals(first, this.rewrite("[1..1000000]"));
+        Assert.assertEquals(2, this.defined.size());
+    }
+
+    @Test
+    public void polymorphicNotSharedTest() {
+        this.a.setAnnotationAsType(Type.listOf(new TypeVar("n", false)));
+        String code = this.rewrite("[1..10]");
+
+        // b depends on a, so neither can be shared
+        Assert.assertTrue(this.defined.isEmpty());
+        Assert.assertTrue(code.contains(this.a.getUniqueName() + " = ([1..10]); "));
+    }
+
+    @Test
+    public void droppedTest() {
+        Object other = new Object();
+        this.rewrite("[1..10]");
+        this.rewrite(other, "[1..10]");
+        String sharedA = this.sharedName(this.a);
+
+        // still used by the other requester
+        this.shared.rewrite(this, new Value(Type.con("Integer"), "42"), this.defined::put, this.dropped::add);
+        Assert.assertTrue(this.dropped.isEmpty());
+
+        this.shared.rewrite(other, new Value(Type.con("Integer"), "42"), this.defined::put, this.dropped::add);
+        Assert.assertEquals(2, this.dropped.size());
+        Assert.assertTrue(this.dropped.contains(sharedA));
+
+        // defined again once it is used again
+        this.defined.clear();
+        this.rewrite("[1..10]");
+        Assert.assertEquals(2, this.defined.size());
+    }
+}
@@ -0,0 +1,107 @@
+package nl.utwente.viskell.haskell.eval;
+
+import nl.utwente.viskell.ghcj.HaskellException;
+import nl.utwente.viskell.haskell.env.Environment;
+import nl.utwente.viskell.haskell.env.HaskellCatalog;
+import nl.utwente.viskell.haskell.expr.Apply;
+import nl.utwente.viskell.haskell.expr.Binder;
+import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.Lambda;
+import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.haskell.expr.LocalVar;
+import nl.utwente.viskell.haskell.expr.Value;
+import nl.utwente.viskell.haskell.type.Type;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class InterpreterTest {
+    private Environment env;
+
+    @Before
+    public void setUp() {
+        this.env = new HaskellCatalog().asEnvironment();
+    }
+
+    private Expression apply(String fun, Expression... args) throws HaskellException {
+        Expression expr = this.env.useFun(fun);
+        for (Expression arg : args) {
+            expr = new Apply(expr, arg);
+        }
+        return expr;
+    }
+
+    private static Expression integer(long n) {
+        return new Value(Type.con("Integer"), Long.toString(n));
+    }
+
+    private static Expression number(double x) {
+        return new Value(Type.con("Double"), Double.toString(x));
+    }
+
+    @Test
+    public void arithmeticTest() throws HaskellException {
+        assertEquals(Optional.of("7"), Interpreter.show(this.apply("(+)", integer(3), integer(4))));
+        assertEquals(Optional.of("-2"), Interpreter.show(this.apply("div", integer(-7), integer(4))));
+        assertEquals(Optional.of("1024"), Interpreter.show(this.apply("(^)", integer(2), integer(10))));
+        assertEquals(Optional.of("0.30000000000000004"), Interpreter.show(this.apply("(+)", number(0.1), number(0.2))));
+        // round goes to the even number on halves
+        assertEquals(Optional.of("2"), Interpreter.show(this.apply("round", number(2.5))));
+    }
+
+    @Test
+    public void boolAndTupleTest() throws HaskellException {
+        Expression lt = this.apply("(<)", integer(1), integer(2));
+        assertEquals(Optional.of("True"), Interpreter.show(this.apply("not", this.apply("not", lt))));
+        assertEquals(Optional.of("(-1,True)"), Interpreter.show(this.apply("(,)", integer(-1), lt)));
+        assertEquals(Optional.of("2"), Interpreter.show(this.apply("snd", this.apply("(,)", integer(1), integer(2)))));
+    }
+
+    @Test
+    public void letAndLambdaTest() throws HaskellException {
+        Binder x = new Binder("x");
+        Binder y = new Binder("y");
+        Expression add = new Lambda(Arrays.asList(x, y), this.apply("(*)", new LocalVar(x), new LocalVar(y)));
+        Binder f = new Binder("f");
+        LetExpression let = new LetExpression(new Apply(new Apply(new LocalVar(f), integer(6)), integer(7)), false);
+        let.addLetBinding(f, add);
+        assertEquals(Optional.of("42"), Interpreter.show(let));
+    }
+
+    @Test
+    public void fallbackTest() throws HaskellException {
+        // errors and overflows are left to ghci
+        assertFalse(Interpreter.show(this.apply("div", integer(1), integer(0))).isPresent());
+        assertFalse(Interpreter.show(this.apply("(*)", integer(Long.MAX_VALUE), integer(2))).isPresent());
+        // as are functions it does not know
+        assertFalse(Interpreter.show(this.apply("show", integer(1))).isPresent());
+        assertFalse(Interpreter.show(new Value(Type.con("Float"), "1.5")).isPresent());
+    }
+
+    @Test
+    public void sampleTest() throws HaskellException {
+        Binder x = new Binder("x");
+        Expression square = new Lambda(Arrays.asList(x), this.apply("(*)", new LocalVar(x), new LocalVar(x)));
+        double[] ys = Interpreter.sample(square, new double[] {1, 2, 3}).get();
+        assertArrayEquals(new double[] {1, 4, 9}, ys, 0);
+        assertArrayEquals(new double[] {0, 1}, Interpreter.sample(this.env.useFun("sin"), new double[] {0, Math.PI / 2}).get(), 1e-15);
+    }
+
+    @Test
+    public void showDoubleTest() {
+        assertEquals("0.1", Interpreter.showDouble(0.1));
+        assertEquals("1.0e-2", Interpreter.showDouble(0.01));
+        assertEquals("1234567.0", Interpreter.showDouble(1234567));
+        assertEquals("1.0e7", Interpreter.showDouble(1e7));
+        assertEquals("12.5", Interpreter.showDouble(12.5));
+        assertEquals("-0.0", Interpreter.showDouble(-0.0));
+        assertEquals("1.2345e-4", Interpreter.showDouble(1.2345e-4));
+        assertEquals("Infinity", Interpreter.showDouble(Double.POSITIVE_INFINITY));
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class TypeTest {
     @Test
@@ -55,4 +57,53 @@ public class TypeTest {
         TypeChecker.unify("test", t2, t3);
         assertEquals("([Int], [Int])", t2.prettyPrint());
     }
+
+    @Test
+    public final void groundInterningTest() {
+        TypeScope scope = new TypeScope();
+        assertSame(Type.con("Int"), Type.con("Int"));
+        assertSame(Type.listOf(Type.con("Char")), Type.con("[]", Type.con("Char")));
+        assertSame(Type.fun(Type.con("Double"), Type.con("Double")), Type.fun(Type.con("Double"), Type.con("Double")));
+
+        final Type ground = Type.tupleOf(Type.con("Int"), Type.listOf(Type.con("Bool")));
+        assertSame(ground, ground.getFresh());
+        assertSame(ground, ground.getConcrete());
+
+        final Type open = Type.listOf(scope.getVar("a"));
+        assertNotSame(open, Type.listOf(scope.getVar("a")));
+        assertNotSame(open, open.getFresh());
+    }
+
+    @Test
+    public final void groundConcreteTest() throws HaskellTypeError {
+        TypeScope scope = new TypeScope();
+        final TypeVar a = scope.getVar("a");
+        final Type open = Type.fun(a, Type.con("Int"));
+        TypeChecker.unify("dummy", a, Type.con("Int"));
+
+        assertSame(Type.fun(Type.con("Int"), Type.con("Int")), open.getConcrete());
+    }
+
+    @Test
+    public final void templateTest() throws HaskellTypeError {
+        TypeScope scope = new TypeScope();
+        final TypeVar a = scope.getVarTC("a", new TypeClass("Num", Type.con("Int")));
+        final Type closed = Type.listOf(Type.con("Char"));
+        final Type t = Type.fun(a, closed, Type.tupleOf(a, scope.getVar("b")));
+        final TypeTemplate template = TypeTemplate.of(t);
+
+        final Type fresh = template.instantiate();
+        assertEquals(t.prettyPrint(), fresh.prettyPrint());
+        assertEquals(t.getFresh().prettyPrint(), fresh.prettyPrint());
+
+        // a closed part is shared, type variables are new but still shared between their occurrences
+        FunType f1 = (FunType) fresh;
+        FunType f2 = (FunType) f1.getResult();
+        assertSame(closed, f2.getArgument());
+        assertNotSame(a, f1.getArgument());
+        TypeChecker.unify("dummy", f1.getArgument(), Type.con("Int"));
+        assertEquals("Int -> [Char] -> (Int, b)", fresh.prettyPrint());
+        assertEquals("Num a -> [Char] -> (Num a, b)", t.prettyPrint());
+        assertEquals("Num a -> [Char] -> (Num a, b)", template.instantiate().prettyPrint());
+    }
 }
@@ -10,6 +10,8 @@ import nl.utwente.viskell.haskell.expr.Value;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
 
 public class UnificationTest {
 
@@ -119,4 +121,82 @@ public class UnificationTest {
         TypeChecker.unify("dummy", b, Type.con("Int"));
         assertEquals("Int", y.prettyPrint());
     }
+
+    @Test
+    public void testLongChainUnification() throws HaskellException {
+        TypeScope scope = new TypeScope();
+        TypeVar[] vars = new TypeVar[1000];
+        for (int i = 0; i < vars.length; i++) {
+            vars[i] = TypeScope.unique("v");
+            if (i > 0) {
+                TypeChecker.unify("dummy", vars[i], vars[i / 2]);
+            }
+        }
+
+        TypeVar named = scope.getVarTC("n", new TypeClass("Num", Type.con("Int")));
+        TypeChecker.unify("dummy", vars[vars.length - 1], named);
+        assertEquals("n", vars[0].getName());
+        assertEquals(vars[0], vars[vars.length / 3]);
+
+        TypeChecker.unify("dummy", vars[7], Type.con("Int"));
+        for (TypeVar var : vars) {
+            assertEquals("Int", var.prettyPrint());
+        }
+        assertEquals("Int", named.prettyPrint());
+    }
+
+    @Test
+    public void testTrialUnification() throws HaskellException {
+        TypeScope scope = new TypeScope();
+        TypeVar a = scope.getVar("a");
+        TypeVar b = scope.getVarTC("b", new TypeClass("Num", Type.con("Int")));
+        Type pair = Type.tupleOf(a, b);
+
+        TypeChecker.trialUnify("dummy", pair, Type.tupleOf(Type.con("Bool"), Type.con("Int")));
+        assertEquals("(a, Num b)", pair.prettyPrint());
+
+        TypeChecker.trialUnify("dummy", a, b);
+        assertNotEquals(a, b);
+        assertEquals("a", a.prettyPrint());
+    }
+
+    @Test
+    public void testAtomicUnification() throws HaskellException {
+        TypeScope scope = new TypeScope();
+        TypeVar a = scope.getVar("a");
+        TypeVar b = scope.getVar("b");
+        TypeVar c = scope.getVarTC("c", new TypeClass("Num", Type.con("Int")));
+        TypeChecker.unify("dummy", a, b);
+
+        try {
+            // b gets unified with c before Bool is found not to be a Num
+            TypeChecker.unifyAtomically("dummy", Type.fun(b, a), Type.fun(c, Type.con("Bool")));
+            fail("Bool is not a Num");
+        } catch (HaskellTypeError e) {
+            // expected
+        }
+        assertNotEquals(a, c);
+        assertEquals("b", a.prettyPrint());
+        assertEquals("Num c", c.prettyPrint());
+
+        TypeChecker.unifyAtomically("dummy", Type.fun(b, a), Type.fun(c, Type.con("Int")));
+        assertEquals("Int", c.prettyPrint());
+        assertEquals("Int", a.prettyPrint());
+    }
+
+    @Test
+    public void testDeeplyNestedUnification() throws HaskellException {
+        // deep enough to overflow the stack of a recursive unifier
+        Type[] lefts = new Type[100000];
+        Type[] rights = new Type[lefts.length];
+        for (int i = 0; i < lefts.length; i++) {
+            lefts[i] = Type.listOf(Type.con("Int"));
+            rights[i] = Type.listOf(TypeScope.unique("e"));
+        }
+        TypeVar result = TypeScope.unique("r");
+
+        TypeChecker.unify("dummy", Type.fun(Type.fun(lefts), Type.con("Bool")), Type.fun(Type.fun(rights), result));
+        assertEquals("Bool", result.prettyPrint());
+        assertEquals("[Int]", rights[lefts.length - 1].prettyPrint());
+    }
 }